@@ -5,6 +5,7 @@ import com.atlassian.confluence.content.render.xhtml.ConversionContextOutputType
 import com.atlassian.confluence.content.render.xhtml.DefaultConversionContext;
 
 import com.atlassian.confluence.core.ContentEntityObject;
+import com.atlassian.confluence.core.ContentPropertyManager;
 import com.atlassian.confluence.macro.Macro;
 import com.atlassian.confluence.macro.MacroExecutionException;
 import com.atlassian.confluence.pages.Attachment;
@@ -19,30 +20,20 @@ import com.atlassian.renderer.v2.RenderMode;
 import com.atlassian.renderer.v2.macro.BaseMacro;
 import com.atlassian.renderer.v2.macro.MacroException;
 
-import java.awt.Graphics2D;
-import java.awt.Color;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.StringBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
-import javax.imageio.ImageIO;
-import javax.swing.JLabel;
-
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.lang.StringUtils;
 
-import org.scilab.forge.jlatexmath.TeXConstants;
-import org.scilab.forge.jlatexmath.TeXFormula;
-import org.scilab.forge.jlatexmath.TeXIcon;
+import org.scilab.forge.jlatexmath.TeXNormalizer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,23 +53,27 @@ public class CachedLaTeXMacro extends BaseMacro implements Macro
 		return RenderMode.NO_RENDER;
 	}
 
-	private static final String DOT = ".";
-	private static final String ATTACHMENT_EXT = "png";
-	private static final int ATTACHMENT_COMMENT_MAX_LENGTH = 254;
-	private static final String ATTACHMENT_COMMENT_SUFFIX = "...";
-	private static final String ATTACHMENT_MIMETYPE = "image/png";
+	// set to true to name the attachments after the normalized formula, so formulas
+	// written differently share their image (off by default: it changes the names)
+	private static final String NORMALIZE_PROPERTY = "latex.normalizehash";
+	private static final boolean NORMALIZE = Boolean.getBoolean(NORMALIZE_PROPERTY);
 
 	private final AttachmentManager attachmentManager;
 	private final SettingsManager settingsManager;
 	private final PageManager pageManager;
+	private final LaTeXCache cache;
+	private final LaTeXMigrator migrator;
 
 	private static final Logger log = LoggerFactory.getLogger(CachedLaTeXMacro.class);
 
-	public CachedLaTeXMacro(AttachmentManager attachmentManager, SettingsManager settingsManager, PageManager pageManager)
+	public CachedLaTeXMacro(AttachmentManager attachmentManager, SettingsManager settingsManager, PageManager pageManager,
+			ContentPropertyManager contentPropertyManager, LaTeXMigrator migrator)
 	{
 		this.attachmentManager = attachmentManager;
 		this.settingsManager = settingsManager;
 		this.pageManager = pageManager;
+		this.cache = new LaTeXCache(attachmentManager, contentPropertyManager);
+		this.migrator = migrator;
 	}
 
 	// Confluence < 4.0
@@ -140,12 +135,12 @@ public class CachedLaTeXMacro extends BaseMacro implements Macro
 			return "";
 		}
 
-		String latexHash = SHA1(body);
-		String attachmentFileName = latexHash + DOT + ATTACHMENT_EXT;
+		String latexHash = SHA1(NORMALIZE ? TeXNormalizer.normalize(body) : body);
+		String attachmentFileName = LaTeXCache.getImageFileName(latexHash);
 
 		log.debug("{} - Attachment Filename: {}", pageObject.toString(), attachmentFileName);
 
-		Attachment attachment = attachmentManager.getAttachment(pageObject, attachmentFileName);
+		Attachment attachment = cache.getImage(pageObject, latexHash);
 		String attachmentURL = null;
 
 		if (attachment == null)
@@ -162,55 +157,29 @@ public class CachedLaTeXMacro extends BaseMacro implements Macro
 
 			log.debug(logString.toString());
 
-			// need to generate image
-			TeXFormula formula = new TeXFormula(body);
-			TeXIcon icon = formula.createTeXIcon(TeXConstants.STYLE_DISPLAY, 20);
-
-			BufferedImage image = new BufferedImage(icon.getIconWidth(), icon.getIconHeight(), BufferedImage.TYPE_INT_ARGB);
-
-			Graphics2D g2 = image.createGraphics();
-
-			JLabel jl = new JLabel();
-			jl.setForeground(new Color(0, 0, 0));
-			icon.paintIcon(jl, g2, 0, 0);
-
-			final ByteArrayOutputStream output = new ByteArrayOutputStream() {
-				@Override
-				public synchronized byte[] toByteArray() {
-					return this.buf;
-				}
-			};
+			// don't initialise the renderer concurrently with the warm-up
+			LaTeXWarmUp.awaitWarmUp();
 
+			// need to generate image, from the stored display list if there is one
+			LaTeXCache.Rendering rendering;
 			try {
-				ImageIO.write(image, "png", output);
+				rendering = cache.render(pageObject, latexHash, body);
 			} catch (IOException e) {
 				e.printStackTrace();
 				return null;
 			}
 
-			byte[] attachmentDataByteArray = output.toByteArray();
-
 			// If we're previewing, then we don't want to create the attachment yet, we just want to
 			// create a base64 URL to show the preview.
 			if (shouldUseBase64Image)
 			{
-				attachmentURL = getBase64StringOfPNGData(attachmentDataByteArray);
+				attachmentURL = getBase64StringOfPNGData(Arrays.copyOf(rendering.data, rendering.length));
 			}
 			// otherwise, we want to save the attachment to the page for caching
 			else
 			{
-				InputStream attachmentData = new ByteArrayInputStream(attachmentDataByteArray, 0, output.size());
-
-				String attachmentComment = body;
-				if (attachmentComment.length() > ATTACHMENT_COMMENT_MAX_LENGTH) {
-					attachmentComment = attachmentComment.substring(0, ATTACHMENT_COMMENT_MAX_LENGTH - ATTACHMENT_COMMENT_SUFFIX.length()) + ATTACHMENT_COMMENT_SUFFIX;
-				}
-
-				attachment = new Attachment(attachmentFileName, ATTACHMENT_MIMETYPE, output.size(), attachmentComment);
-				attachment.setContent(pageObject);
-
 				try {
-					attachmentManager.saveAttachment(attachment, null, attachmentData);
+					attachment = cache.save(pageObject, latexHash, body, rendering, null);
 				} catch (IOException e) {
 					e.printStackTrace();
 					return null;
@@ -220,6 +189,12 @@ public class CachedLaTeXMacro extends BaseMacro implements Macro
 		else
 		{
 			log.debug("Attachment was NOT NULL: {}", attachment.toString());
+
+			// made by an older renderer: keep showing it until the new version is ready
+			if (!shouldUseBase64Image && !cache.isCurrent(pageObject, latexHash))
+			{
+				migrator.submit(pageObject, latexHash, body);
+			}
 		}
 
 		if (attachmentURL == null)
@@ -0,0 +1,310 @@
+package edu.ucsd.crbs.confluence.plugins.latex;
+
+import com.atlassian.confluence.core.ContentEntityObject;
+import com.atlassian.confluence.core.ContentPropertyManager;
+import com.atlassian.confluence.pages.Attachment;
+import com.atlassian.confluence.pages.AttachmentManager;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.scilab.forge.jlatexmath.DisplayList;
+import org.scilab.forge.jlatexmath.GlyphCache;
+import org.scilab.forge.jlatexmath.TeXConstants;
+import org.scilab.forge.jlatexmath.TeXFormula;
+import org.scilab.forge.jlatexmath.TeXIcon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The images of the formulas of a page. They are attachments of the page named after
+ * the hash of the formula, with the display list of the formula next to them. The
+ * render parameters and the renderer version the images were made with are kept in a
+ * property of the page, so the images made by an older renderer can be found and
+ * replaced by a new version of the attachment. The properties read are kept in memory
+ * for the most recently viewed pages.
+ */
+class LaTeXCache
+{
+	// bump when an upgrade changes the images (fonts, layout fixes...)
+	static final int RENDERER_VERSION = 1;
+
+	static final int STYLE = TeXConstants.STYLE_DISPLAY;
+	static final float SIZE = 20;
+	static final Color FOREGROUND = new Color(0, 0, 0);
+
+	// what the images depend on, besides the renderer version
+	static final String RENDER_PARAMETERS = STYLE + ";" + SIZE + ";" + Integer.toHexString(FOREGROUND.getRGB());
+	static final String RENDER_KEY = RENDERER_VERSION + ";" + RENDER_PARAMETERS;
+
+	// the images without a property have been made by the first version, before the property existed
+	static final String LEGACY_RENDER_KEY = "1;" + TeXConstants.STYLE_DISPLAY + ";" + 20f + ";" + Integer.toHexString(0xff000000);
+
+	private static final String DOT = ".";
+	private static final String ATTACHMENT_EXT = "png";
+	private static final int ATTACHMENT_COMMENT_MAX_LENGTH = 254;
+	private static final String ATTACHMENT_COMMENT_SUFFIX = "...";
+	private static final String ATTACHMENT_MIMETYPE = "image/png";
+	private static final String DISPLAY_LIST_EXT = "jlm";
+	private static final String DISPLAY_LIST_MIMETYPE = "application/octet-stream";
+	private static final String RENDER_KEY_PROPERTY = "latex.render.";
+	private static final int MAX_CACHED_PAGES = 1000;
+
+	// the render keys of the images of the last viewed pages, by page id and formula hash
+	private static final Map<Long, Map<String, String>> renderKeys = new LinkedHashMap<Long, Map<String, String>>(16, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Map<String, String>> eldest)
+		{
+			return size() > MAX_CACHED_PAGES;
+		}
+	};
+
+	private final AttachmentManager attachmentManager;
+	private final ContentPropertyManager contentPropertyManager;
+
+	private static final Logger log = LoggerFactory.getLogger(LaTeXCache.class);
+
+	/**
+	 * A rendered formula, as a PNG image
+	 */
+	static class Rendering
+	{
+		final byte[] data;
+		final int length;
+
+		// the display list to store, when the formula has been parsed
+		final DisplayList displayList;
+
+		Rendering(byte[] data, int length, DisplayList displayList)
+		{
+			this.data = data;
+			this.length = length;
+			this.displayList = displayList;
+		}
+	}
+
+	LaTeXCache(AttachmentManager attachmentManager, ContentPropertyManager contentPropertyManager)
+	{
+		this.attachmentManager = attachmentManager;
+		this.contentPropertyManager = contentPropertyManager;
+	}
+
+	static String getImageFileName(String latexHash)
+	{
+		return latexHash + DOT + ATTACHMENT_EXT;
+	}
+
+	Attachment getImage(ContentEntityObject pageObject, String latexHash)
+	{
+		return attachmentManager.getAttachment(pageObject, getImageFileName(latexHash));
+	}
+
+	/**
+	 * @return true if the image of the formula has been made with the current renderer and
+	 * parameters, or with a newer renderer
+	 */
+	boolean isCurrent(ContentEntityObject pageObject, String latexHash)
+	{
+		String key;
+		synchronized (renderKeys)
+		{
+			Map<String, String> keys = renderKeys.get(pageObject.getId());
+			key = keys == null ? null : keys.get(latexHash);
+		}
+		if (key == null)
+		{
+			key = readRenderKey(pageObject, latexHash);
+		}
+
+		return isCurrent(key);
+	}
+
+	/**
+	 * Same as isCurrent, but the render key is read again from the page, as another node
+	 * of the cluster may have re-rendered the image
+	 */
+	boolean isStillCurrent(ContentEntityObject pageObject, String latexHash)
+	{
+		return isCurrent(readRenderKey(pageObject, latexHash));
+	}
+
+	static boolean isCurrent(String key)
+	{
+		int sep = key.indexOf(';');
+		int version;
+		try
+		{
+			version = Integer.parseInt(key.substring(0, sep == -1 ? key.length() : sep));
+		}
+		catch (NumberFormatException e)
+		{
+			return false;
+		}
+
+		return version >= RENDERER_VERSION && sep != -1 && key.substring(sep + 1).equals(RENDER_PARAMETERS);
+	}
+
+	private String readRenderKey(ContentEntityObject pageObject, String latexHash)
+	{
+		String key = contentPropertyManager.getStringProperty(pageObject, RENDER_KEY_PROPERTY + latexHash);
+		if (key == null)
+		{
+			key = LEGACY_RENDER_KEY;
+		}
+		putRenderKey(pageObject, latexHash, key);
+
+		return key;
+	}
+
+	private static void putRenderKey(ContentEntityObject pageObject, String latexHash, String key)
+	{
+		synchronized (renderKeys)
+		{
+			Map<String, String> keys = renderKeys.get(pageObject.getId());
+			if (keys == null)
+			{
+				keys = new HashMap<String, String>();
+				renderKeys.put(pageObject.getId(), keys);
+			}
+			keys.put(latexHash, key);
+		}
+	}
+
+	/**
+	 * Render a formula, from its stored display list when it is current
+	 */
+	Rendering render(ContentEntityObject pageObject, String latexHash, String latex) throws IOException
+	{
+		DisplayList displayList = null;
+		TeXIcon icon = null;
+		if (isCurrent(pageObject, latexHash))
+		{
+			Attachment displayListAttachment = attachmentManager.getAttachment(pageObject, latexHash + DOT + DISPLAY_LIST_EXT);
+			if (displayListAttachment != null)
+			{
+				icon = loadDisplayListIcon(displayListAttachment);
+			}
+		}
+
+		if (icon == null)
+		{
+			icon = new TeXFormula(latex).createTeXIcon(STYLE, SIZE);
+			displayList = DisplayList.record(icon);
+		}
+
+		BufferedImage image = new BufferedImage(icon.getIconWidth(), icon.getIconHeight(), BufferedImage.TYPE_INT_ARGB);
+
+		icon.setForeground(FOREGROUND);
+		GlyphCache.paint(icon, image, 0, 0);
+
+		final ByteArrayOutputStream output = new ByteArrayOutputStream() {
+			@Override
+			public synchronized byte[] toByteArray() {
+				return this.buf;
+			}
+		};
+		ImageIO.write(image, "png", output);
+
+		return new Rendering(output.toByteArray(), output.size(), displayList);
+	}
+
+	/**
+	 * Store the image of a formula, as a new version of the previous image if there is one
+	 * @return the attachment of the image
+	 */
+	Attachment save(ContentEntityObject pageObject, String latexHash, String latex, Rendering rendering, Attachment previous) throws IOException
+	{
+		String attachmentComment = latex;
+		if (attachmentComment.length() > ATTACHMENT_COMMENT_MAX_LENGTH) {
+			attachmentComment = attachmentComment.substring(0, ATTACHMENT_COMMENT_MAX_LENGTH - ATTACHMENT_COMMENT_SUFFIX.length()) + ATTACHMENT_COMMENT_SUFFIX;
+		}
+
+		Attachment attachment = saveAttachment(pageObject, getImageFileName(latexHash), ATTACHMENT_MIMETYPE, attachmentComment,
+				new ByteArrayInputStream(rendering.data, 0, rendering.length), rendering.length, previous);
+
+		// keep the laid-out formula next to the image so other variants can be rasterised without parsing
+		if (rendering.displayList != null)
+		{
+			String displayListFileName = latexHash + DOT + DISPLAY_LIST_EXT;
+			byte[] displayListData = rendering.displayList.toByteArray();
+
+			try {
+				saveAttachment(pageObject, displayListFileName, DISPLAY_LIST_MIMETYPE, attachmentComment,
+						new ByteArrayInputStream(displayListData), displayListData.length,
+						attachmentManager.getAttachment(pageObject, displayListFileName));
+			} catch (IOException e) {
+				log.warn("Could not save the display list {}: {}", displayListFileName, e.getMessage());
+			}
+		}
+
+		contentPropertyManager.setStringProperty(pageObject, RENDER_KEY_PROPERTY + latexHash, RENDER_KEY);
+		putRenderKey(pageObject, latexHash, RENDER_KEY);
+
+		return attachment;
+	}
+
+	private Attachment saveAttachment(ContentEntityObject pageObject, String fileName, String contentType, String comment,
+			InputStream data, int length, Attachment previous) throws IOException
+	{
+		Attachment attachment;
+		Attachment previousVersion = null;
+		if (previous == null)
+		{
+			attachment = new Attachment(fileName, contentType, length, comment);
+			attachment.setContent(pageObject);
+		}
+		else
+		{
+			attachment = previous;
+			try {
+				previousVersion = (Attachment) previous.clone();
+			} catch (CloneNotSupportedException e) {
+				throw new IOException(e.toString());
+			}
+			attachment.setFileSize(length);
+			attachment.setComment(comment);
+		}
+
+		attachmentManager.saveAttachment(attachment, previousVersion, data);
+
+		return attachment;
+	}
+
+	/**
+	 * Read a display list attachment and create an icon from it.
+	 * @return the icon or null if the attachment cannot be read
+	 */
+	private TeXIcon loadDisplayListIcon(Attachment displayListAttachment)
+	{
+		InputStream in = attachmentManager.getAttachmentData(displayListAttachment);
+		if (in == null)
+		{
+			return null;
+		}
+
+		try {
+			DisplayList displayList = DisplayList.read(in);
+			return displayList.createTeXIcon(displayList.getSize());
+		} catch (IOException e) {
+			log.warn("Ignoring unreadable display list {}: {}", displayListAttachment.getFileName(), e.getMessage());
+			return null;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package edu.ucsd.crbs.confluence.plugins.latex;
+
+import com.atlassian.confluence.core.ContentEntityManager;
+import com.atlassian.confluence.core.ContentEntityObject;
+import com.atlassian.confluence.core.ContentPropertyManager;
+import com.atlassian.confluence.pages.Attachment;
+import com.atlassian.confluence.pages.AttachmentManager;
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+import com.atlassian.sal.api.transaction.TransactionCallback;
+import com.atlassian.sal.api.transaction.TransactionTemplate;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Plugin component which re-renders, on a low-priority thread, the images made by an
+ * older renderer or with other render parameters (see {@link LaTeXCache#RENDER_KEY}).
+ * The images made before the render key was stored count as made by the first version.
+ * The images are queued when they are viewed and re-rendered one at a time, with a
+ * pause between two renders (2 s by default, see the latex.migration.interval system
+ * property), so an upgrade does not re-render the whole site at once. The pages keep
+ * the old image until its new version is saved.
+ */
+public class LaTeXMigrator implements LifecycleAware, DisposableBean
+{
+	// the minimum time between two renders, in ms
+	private static final String INTERVAL_PROPERTY = "latex.migration.interval";
+	private static final long DEFAULT_INTERVAL = 2000;
+
+	// the images viewed while the queue is full are queued when they are viewed again
+	private static final int MAX_QUEUED = 1000;
+
+	private static final Logger log = LoggerFactory.getLogger(LaTeXMigrator.class);
+
+	private final LaTeXCache cache;
+	private final ContentEntityManager contentEntityManager;
+	private final TransactionTemplate transactionTemplate;
+	private final long interval = Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL);
+
+	private final BlockingQueue<Task> queue = new LinkedBlockingQueue<Task>(MAX_QUEUED);
+	private final ConcurrentMap<String, Boolean> queued = new ConcurrentHashMap<String, Boolean>();
+
+	private Thread thread;
+
+	private static class Task
+	{
+		final long pageId;
+		final String latexHash;
+		final String latex;
+
+		Task(long pageId, String latexHash, String latex)
+		{
+			this.pageId = pageId;
+			this.latexHash = latexHash;
+			this.latex = latex;
+		}
+
+		String getKey()
+		{
+			return pageId + "/" + latexHash;
+		}
+	}
+
+	public LaTeXMigrator(AttachmentManager attachmentManager, ContentPropertyManager contentPropertyManager,
+			ContentEntityManager contentEntityManager, TransactionTemplate transactionTemplate)
+	{
+		this.cache = new LaTeXCache(attachmentManager, contentPropertyManager);
+		this.contentEntityManager = contentEntityManager;
+		this.transactionTemplate = transactionTemplate;
+	}
+
+	@Override
+	public synchronized void onStart()
+	{
+		if (thread != null)
+		{
+			return;
+		}
+
+		thread = new Thread("latex-migrator")
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					migrate();
+				}
+				catch (InterruptedException e)
+				{
+					// the plugin is disabled
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	@Override
+	public synchronized void destroy()
+	{
+		if (thread != null)
+		{
+			thread.interrupt();
+			thread = null;
+		}
+		queue.clear();
+		queued.clear();
+	}
+
+	/**
+	 * Queue the outdated image of a formula to be re-rendered, unless it is already queued.
+	 */
+	public void submit(ContentEntityObject pageObject, String latexHash, String latex)
+	{
+		Task task = new Task(pageObject.getId(), latexHash, latex);
+		if (queued.putIfAbsent(task.getKey(), Boolean.TRUE) == null && !queue.offer(task))
+		{
+			queued.remove(task.getKey());
+		}
+	}
+
+	private void migrate() throws InterruptedException
+	{
+		LaTeXWarmUp.awaitWarmUp();
+		while (true)
+		{
+			final Task task = queue.take();
+			try
+			{
+				transactionTemplate.execute(new TransactionCallback<Object>()
+				{
+					@Override
+					public Object doInTransaction()
+					{
+						update(task);
+						return null;
+					}
+				});
+			}
+			catch (RuntimeException e)
+			{
+				log.warn("Could not re-render the image {} of {}: {}", new Object[] { task.latexHash, task.pageId, e.toString() });
+			}
+			finally
+			{
+				queued.remove(task.getKey());
+			}
+
+			Thread.sleep(interval);
+		}
+	}
+
+	private void update(Task task)
+	{
+		ContentEntityObject pageObject = contentEntityManager.getById(task.pageId);
+		if (pageObject == null || cache.isStillCurrent(pageObject, task.latexHash))
+		{
+			return;
+		}
+
+		// a missing image is rendered by the next view of the page
+		Attachment previous = cache.getImage(pageObject, task.latexHash);
+		if (previous == null)
+		{
+			return;
+		}
+
+		try
+		{
+			cache.save(pageObject, task.latexHash, task.latex, cache.render(pageObject, task.latexHash, task.latex), previous);
+			log.debug("Re-rendered the image {} of {}", task.latexHash, task.pageId);
+		}
+		catch (IOException e)
+		{
+			log.warn("Could not save the image {} of {}: {}", new Object[] { task.latexHash, task.pageId, e.getMessage() });
+		}
+	}
+}
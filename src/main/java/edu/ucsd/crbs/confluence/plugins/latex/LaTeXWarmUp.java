@@ -0,0 +1,148 @@
+package edu.ucsd.crbs.confluence.plugins.latex;
+
+import com.atlassian.sal.api.lifecycle.LifecycleAware;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.scilab.forge.jlatexmath.DisplayList;
+import org.scilab.forge.jlatexmath.FontCache;
+import org.scilab.forge.jlatexmath.GlyphCache;
+import org.scilab.forge.jlatexmath.TeXFormula;
+import org.scilab.forge.jlatexmath.TeXIcon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Plugin component which, when the plugin is enabled, initialises JLaTeXMath (fonts,
+ * symbols, predefined commands...) and renders a few representative formulas on a
+ * low-priority thread, so the first page viewed after a deploy does not pay for it.
+ */
+public class LaTeXWarmUp implements LifecycleAware, DisposableBean
+{
+	// how long a render waits for the warm-up before doing the initialisation itself
+	private static final long MAX_WAIT_SECONDS = 60;
+
+	// passes over the corpus, to get the render path compiled
+	private static final int PASSES = 3;
+
+	private static final String[] CORPUS = {
+		"x^2 + y^2 = z^2",
+		"\\frac{a+b}{c-d} \\sqrt{x} \\sqrt[3]{y}",
+		"\\sum_{i=0}^{n} i^2 = \\frac{n(n+1)(2n+1)}{6}",
+		"\\int_0^\\infty e^{-x^2}\\,dx = \\frac{\\sqrt{\\pi}}{2}",
+		"\\alpha\\beta\\gamma\\delta \\leq \\infty \\rightarrow \\mathbb{R}\\mathcal{L}\\mathfrak{g}",
+		"\\left( \\begin{array}{cc} a & b \\\\ c & d \\end{array} \\right) \\begin{pmatrix} 1 \\\\ 2 \\end{pmatrix}",
+		"\\lim_{x \\to 0} \\frac{\\sin x}{x} = 1 \\quad \\text{and} \\quad \\overline{z} \\hat{a} \\vec{v}",
+		"\\mathbf{A}\\mathrm{B}\\mathsf{C}\\mathtt{D}\\mathit{E} \\big( \\Big[ \\bigg\\{ \\Bigg|"
+	};
+
+	private static volatile CountDownLatch running;
+
+	private static final Logger log = LoggerFactory.getLogger(LaTeXWarmUp.class);
+
+	private Thread thread;
+
+	@Override
+	public synchronized void onStart()
+	{
+		if (thread != null)
+		{
+			return;
+		}
+
+		final CountDownLatch latch = new CountDownLatch(1);
+		running = latch;
+		thread = new Thread("latex-warm-up")
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					warmUp();
+				}
+				catch (Throwable t)
+				{
+					log.warn("LaTeX warm-up failed: {}", t.toString());
+				}
+				finally
+				{
+					latch.countDown();
+					if (running == latch)
+					{
+						running = null;
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	@Override
+	public synchronized void destroy()
+	{
+		if (thread != null)
+		{
+			thread.interrupt();
+			thread = null;
+		}
+
+		// don't keep the threads of the library (and so the plugin classes) after the plugin is disabled
+		FontCache.shutdown();
+	}
+
+	/**
+	 * Wait for the warm-up if it is running, so a render does not run the
+	 * initialisation concurrently.
+	 */
+	public static void awaitWarmUp()
+	{
+		CountDownLatch latch = running;
+		if (latch == null)
+		{
+			return;
+		}
+
+		try
+		{
+			if (!latch.await(MAX_WAIT_SECONDS, TimeUnit.SECONDS))
+			{
+				log.warn("LaTeX warm-up still running after {} s", MAX_WAIT_SECONDS);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void warmUp()
+	{
+		long start = System.currentTimeMillis();
+		for (int pass = 0; pass < PASSES; pass++)
+		{
+			for (String latex : CORPUS)
+			{
+				if (Thread.currentThread().isInterrupted())
+				{
+					return;
+				}
+
+				// the same steps as LaTeXCache.render
+				TeXIcon icon = new TeXFormula(latex).createTeXIcon(LaTeXCache.STYLE, LaTeXCache.SIZE);
+				DisplayList.record(icon);
+				BufferedImage image = new BufferedImage(Math.max(icon.getIconWidth(), 1), Math.max(icon.getIconHeight(), 1), BufferedImage.TYPE_INT_ARGB);
+				icon.setForeground(LaTeXCache.FOREGROUND);
+				GlyphCache.paint(icon, image, 0, 0);
+			}
+		}
+		log.info("LaTeX warm-up done in {} ms", System.currentTimeMillis() - start);
+	}
+}
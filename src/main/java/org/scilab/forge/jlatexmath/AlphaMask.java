@@ -0,0 +1,114 @@
+/* AlphaMask.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * The coverage of a painted formula as an 8-bit alpha mask. The foreground color
+ * is only applied when an image is created from the mask, so all the color
+ * variants of a formula can share the same mask, which is 4 times smaller than
+ * an ARGB image.
+ * <p>
+ * Only formulas without colors of their own (see {@link TeXIcon#isColored}) can be
+ * represented by a mask.
+ */
+public final class AlphaMask {
+
+    private final WritableRaster raster;
+
+    private AlphaMask(WritableRaster raster) {
+        this.raster = raster;
+    }
+
+    /**
+     * Paint an icon and keep its coverage.
+     *
+     * @param icon the icon to paint
+     * @return the alpha mask
+     */
+    public static AlphaMask create(TeXIcon icon) {
+        int w = Math.max(icon.getIconWidth(), 1);
+        int h = Math.max(icon.getIconHeight(), 1);
+        BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        GlyphCache.paint(icon, image, 0, 0);
+
+        WritableRaster mask = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, w, h, 1, null);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        byte[] alpha = ((DataBufferByte) mask.getDataBuffer()).getData();
+        for (int i = 0; i < alpha.length; i++) {
+            alpha[i] = (byte) (pixels[i] >>> 24);
+        }
+
+        return new AlphaMask(mask);
+    }
+
+    public int getWidth() {
+        return raster.getWidth();
+    }
+
+    public int getHeight() {
+        return raster.getHeight();
+    }
+
+    /**
+     * @return the number of bytes used by the mask
+     */
+    public long getByteCount() {
+        return (long) raster.getWidth() * raster.getHeight();
+    }
+
+    /**
+     * Create an image painted in the given color. The pixels are not copied: the
+     * image is an indexed view of the mask, so it must not be modified.
+     *
+     * @param fg the foreground color
+     * @return the image
+     */
+    public BufferedImage createImage(Color fg) {
+        byte[] r = new byte[256];
+        byte[] g = new byte[256];
+        byte[] b = new byte[256];
+        byte[] a = new byte[256];
+        int alpha = fg.getAlpha();
+        for (int i = 0; i < 256; i++) {
+            r[i] = (byte) fg.getRed();
+            g[i] = (byte) fg.getGreen();
+            b[i] = (byte) fg.getBlue();
+            a[i] = (byte) ((i * alpha + 127) / 255);
+        }
+
+        return new BufferedImage(new IndexColorModel(8, 256, r, g, b, a), raster, false, null);
+    }
+}
@@ -43,8 +43,6 @@ public class CharBox extends Box {
 
     private final CharFont cf;
     private final float size;
-    
-    private final static char[] arr = new char[1]; 
 
     /**
      * Create a new CharBox that will represent the character defined by the given
@@ -62,6 +60,9 @@ public class CharBox extends Box {
     
     public void draw(Graphics2D g2, float x, float y) {
 	drawDebug(g2, x, y);
+	if (GlyphCache.drawGlyph(g2, cf.fontId, cf.c, x, y, size)) {
+	    return;
+	}
 	AffineTransform at = g2.getTransform();
         g2.translate(x, y);
 	Font font = FontInfo.getFont(cf.fontId);
@@ -71,8 +72,7 @@ public class CharBox extends Box {
         if (g2.getFont() != font) {
 	    g2.setFont(font);
 	}
-	arr[0] = cf.c;
-	g2.drawChars(arr, 0, 1, 0, 0);
+	g2.drawChars(new char[] {cf.c}, 0, 1, 0, 0);
 	g2.setTransform(at);
     }
     
@@ -0,0 +1,147 @@
+/* CharCoupleTable.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table mapping a couple of characters to an int (used
+ * for the kerns and the ligatures of a font). The couple is packed in an int key
+ * and the lookups don't allocate anything.
+ */
+final class CharCoupleTable {
+
+    // the couple (0xFFFF, 0xFFFF) marks the free slots, so it is stored apart
+    private static final int FREE = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private boolean hasFreeKey;
+    private int freeKeyValue;
+
+    CharCoupleTable() {
+        keys = new int[16];
+        values = new int[16];
+        Arrays.fill(keys, FREE);
+    }
+
+    private static int key(char left, char right) {
+        return (left << 16) | right;
+    }
+
+    private static int hash(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    void put(char left, char right, int value) {
+        int key = key(left, right);
+        if (key == FREE) {
+            if (!hasFreeKey) {
+                hasFreeKey = true;
+                size++;
+            }
+            freeKeyValue = value;
+            return;
+        }
+
+        int mask = keys.length - 1;
+        int i = hash(key, mask);
+        while (keys[i] != FREE) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    /**
+     * @return the value of the couple or defaultValue if there is no value
+     */
+    int get(char left, char right, int defaultValue) {
+        int key = key(left, right);
+        if (key == FREE) {
+            return hasFreeKey ? freeKeyValue : defaultValue;
+        }
+
+        int mask = keys.length - 1;
+        int i = hash(key, mask);
+        int k;
+        while ((k = keys[i]) != FREE) {
+            if (k == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+
+        return defaultValue;
+    }
+
+    /**
+     * @return the couples in the table, packed as (left &lt;&lt; 16) | right
+     */
+    int[] getCouples() {
+        int[] res = new int[size];
+        int n = 0;
+        if (hasFreeKey) {
+            res[n++] = FREE;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) {
+                res[n++] = keys[i];
+            }
+        }
+
+        return res;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != FREE) {
+                int i = hash(oldKeys[j], mask);
+                while (keys[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/* CharTable.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+import java.util.Arrays;
+
+/**
+ * A table mapping a character to a string. The table is split in pages of 256
+ * characters which are only allocated when one of their characters is mapped,
+ * so a lookup is still two array accesses.
+ */
+public final class CharTable {
+
+    private static final int PAGE_SIZE = 256;
+
+    // shared by all the unallocated pages, it is never modified
+    private static final String[] EMPTY_PAGE = new String[PAGE_SIZE];
+
+    private final String[][] pages = new String[65536 / PAGE_SIZE][];
+
+    public CharTable() {
+        Arrays.fill(pages, EMPTY_PAGE);
+    }
+
+    /**
+     * @param c a character
+     * @return the string mapped to c or null
+     */
+    public String get(char c) {
+        return pages[c >>> 8][c & 0xFF];
+    }
+
+    /**
+     * @param c a character
+     * @param s the string to map to c, or null to remove the mapping
+     */
+    public void put(char c, String s) {
+        String[] page = pages[c >>> 8];
+        if (page == EMPTY_PAGE) {
+            if (s == null) {
+                return;
+            }
+            page = new String[PAGE_SIZE];
+            pages[c >>> 8] = page;
+        }
+        page[c & 0xFF] = s;
+    }
+
+    /**
+     * @return the mapped characters in increasing order
+     */
+    public char[] getChars() {
+        int n = 0;
+        for (String[] page : pages) {
+            if (page != EMPTY_PAGE) {
+                for (String s : page) {
+                    if (s != null) {
+                        n++;
+                    }
+                }
+            }
+        }
+
+        char[] res = new char[n];
+        n = 0;
+        for (int i = 0; i < pages.length; i++) {
+            if (pages[i] != EMPTY_PAGE) {
+                for (int j = 0; j < PAGE_SIZE; j++) {
+                    if (pages[i][j] != null) {
+                        res[n++] = (char) (i * PAGE_SIZE + j);
+                    }
+                }
+            }
+        }
+
+        return res;
+    }
+}
@@ -0,0 +1,146 @@
+/* CommandTable.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+/**
+ * The resolution of the command names met by the parser. A name is searched, in this
+ * order, in the macros (MacroInfo.Commands), the predefined formulas and the symbols,
+ * and the result is kept so the next occurrences of the name only need one lookup.
+ * The lookups are made directly on the characters of the parsed string, so a known
+ * command is recognized without creating a String: its entry gives the shared name
+ * and the resolved command.
+ * <p>
+ * The table must be invalidated when a macro, a predefined formula or a symbol is
+ * added, changed or removed.
+ */
+final class CommandTable {
+
+    static final class Entry {
+
+        final String name;
+        final char[] chars;
+        // a MacroInfo, a TeXFormula (for a predefined formula, which must not be
+        // modified) or a SymbolAtom
+        final Object command;
+        final int hash;
+        final Entry next;
+
+        Entry(String name, Object command, int hash, Entry next) {
+            this.name = name;
+            this.chars = name.toCharArray();
+            this.command = command;
+            this.hash = hash;
+            this.next = next;
+        }
+    }
+
+    // the entries are immutable and added under the lock, the array is replaced
+    // when it grows or when the table is invalidated, so a resolution in progress
+    // can't put an old result in a new table
+    private static volatile Entry[] table = new Entry[1024];
+    private static int size;
+    private static volatile int generation;
+
+    private CommandTable() { }
+
+    /**
+     * @param buf the parsed string
+     * @param start the start of the name of a command (without the backslash)
+     * @param end the end of the name
+     * @return the entry of the command or null if the name is unknown
+     */
+    static Entry get(GapBuffer buf, int start, int end) {
+        int h = buf.hashCode(start, end);
+        Entry[] t = table;
+        int n = end - start;
+        for (Entry e = t[h & (t.length - 1)]; e != null; e = e.next) {
+            if (e.hash == h && e.chars.length == n && buf.regionMatches(start, e.chars)) {
+                return e;
+            }
+        }
+
+        return resolve(t, buf.substring(start, end), h);
+    }
+
+    private static Entry resolve(Entry[] t, String name, int h) {
+        Object command = MacroInfo.Commands.get(name);
+        if (command == null) {
+            command = TeXFormula.findPredefined(name);
+            if (command == null) {
+                command = SymbolAtom.symbols.get(name);
+                if (command == null) {
+                    return null;
+                }
+            }
+        }
+
+        return put(t, name, command, h);
+    }
+
+    private static synchronized Entry put(Entry[] t, String name, Object command, int h) {
+        if (table != t) {
+            // invalidated (or grown) in the meantime
+            return new Entry(name, command, h, null);
+        }
+
+        int i = h & (t.length - 1);
+        for (Entry e = t[i]; e != null; e = e.next) {
+            if (e.hash == h && e.name.equals(name)) {
+                return e;
+            }
+        }
+
+        Entry entry = new Entry(name, command, h, t[i]);
+        t[i] = entry;
+        if (++size > t.length) {
+            Entry[] nt = new Entry[2 * t.length];
+            for (Entry head : t) {
+                for (Entry e = head; e != null; e = e.next) {
+                    int j = e.hash & (nt.length - 1);
+                    nt[j] = new Entry(e.name, e.command, e.hash, nt[j]);
+                }
+            }
+            table = nt;
+        }
+
+        return entry;
+    }
+
+    /**
+     * @return a number which changes when the table is invalidated, so the entries
+     * got before are out of date
+     */
+    static int getGeneration() {
+        return generation;
+    }
+
+    static synchronized void invalidate() {
+        table = new Entry[1024];
+        size = 0;
+        generation++;
+    }
+}
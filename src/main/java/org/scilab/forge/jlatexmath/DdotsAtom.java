@@ -37,7 +37,7 @@ public class DdotsAtom extends Atom {
     }
     
     public Box createBox(TeXEnvironment env) {
-	Box ldots = TeXFormula.get("ldots").root.createBox(env);
+	Box ldots = TeXFormula.getPredefinedAtom("ldots").createBox(env);
 	float w = ldots.getWidth();
 	Box dot = SymbolAtom.get("ldotp").createBox(env);
 	HorizontalBox hb1 = new HorizontalBox(dot, w, TeXConstants.ALIGN_LEFT);
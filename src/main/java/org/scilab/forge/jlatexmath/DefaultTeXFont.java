@@ -33,7 +33,10 @@ import java.awt.Font;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.lang.Character.UnicodeBlock;
 import java.io.FileInputStream;
 import java.io.InputStream;
@@ -62,20 +65,49 @@ public class DefaultTeXFont implements TeXFont {
      */
     private static final int NUMBER_OF_FONT_IDS = 256;
 
-    private static Map<String, CharFont[]> textStyleMappings;
-    private static Map<String, CharFont> symbolMappings;
-    private static FontInfo[] fontInfo = new FontInfo[0];
+    // the tables are replaced (and not modified) when an alphabet or a font description is added
+    private static volatile Map<String, CharFont[]> textStyleMappings;
+    private static volatile Map<String, CharFont> symbolMappings;
+    private static volatile FontInfo[] fontInfo = new FontInfo[0];
     private static Map<String, Float> parameters;
     private static Map<String, Number> generalSettings;
 
+    /**
+     * Indices of the font parameters, see {@link #styleParameters}
+     */
+    private static final int NUM1 = 0, NUM2 = 1, NUM3 = 2, DENOM1 = 3, DENOM2 = 4, SUP1 = 5, SUP2 = 6,
+        SUP3 = 7, SUB1 = 8, SUB2 = 9, SUPDROP = 10, SUBDROP = 11, AXISHEIGHT = 12, DEFAULTRULETHICKNESS = 13,
+        BIGOPSPACING1 = 14, BIGOPSPACING2 = 15, BIGOPSPACING3 = 16, BIGOPSPACING4 = 17, BIGOPSPACING5 = 18,
+        SIZE_FACTOR = 19;
+    private static final String[] PARAMETER_NAMES = { "num1", "num2", "num3", "denom1", "denom2", "sup1", "sup2",
+                                                      "sup3", "sub1", "sub2", "supdrop", "subdrop", "axisheight",
+                                                      "defaultrulethickness", "bigopspacing1", "bigopspacing2",
+                                                      "bigopspacing3", "bigopspacing4", "bigopspacing5" };
+
+    // the parameters multiplied by the size factor of each style (display, text, script and
+    // scriptscript), the size factor itself is at SIZE_FACTOR
+    private static float[][] styleParameters;
+    private static int muFontId;
+    private static int spaceFontId;
+
     private static boolean magnificationEnable = true;
     
     protected static final int TOP = 0, MID = 1, REP = 2, BOT = 3;
 
     protected static final int WIDTH = 0, HEIGHT = 1, DEPTH = 2, IT = 3;
 
-    public static List<Character.UnicodeBlock> loadedAlphabets = new ArrayList<Character.UnicodeBlock>();
-    public static Map<Character.UnicodeBlock, AlphabetRegistration> registeredAlphabets = new HashMap<Character.UnicodeBlock, AlphabetRegistration>();
+    /**
+     * Font remappings, see {@link FontInfo#getStyleId(int)}
+     */
+    static final int ROMAN = 1, SS = 2, TT = 4, ITALIC = 8;
+
+    // the Char objects are immutable, so they are shared: the cache is indexed by a hash
+    // of (font id, character, size) and a new Char replaces the one with the same hash
+    private static final int CHAR_CACHE_SIZE = 4096;
+    private static final Char[] charCache = new Char[CHAR_CACHE_SIZE];
+
+    public static List<Character.UnicodeBlock> loadedAlphabets = new CopyOnWriteArrayList<Character.UnicodeBlock>();
+    public static Map<Character.UnicodeBlock, AlphabetRegistration> registeredAlphabets = new ConcurrentHashMap<Character.UnicodeBlock, AlphabetRegistration>();
 
     protected float factor = 1f;
 
@@ -86,25 +118,38 @@ public class DefaultTeXFont implements TeXFont {
     public boolean isIt = false;
 
     static {
-        DefaultTeXFontParser parser = new DefaultTeXFontParser();
         //load LATIN block
         loadedAlphabets.add(Character.UnicodeBlock.of('a'));
-        // fonts + font descriptions
-        fontInfo = parser.parseFontDescriptions(fontInfo);
-        // general font parameters
-        parameters = parser.parseParameters();
-        // text style mappings
-        textStyleMappings = parser.parseTextStyleMappings();
-        // default text style : style mappings
-        defaultTextStyleMappings = parser.parseDefaultTextStyleMappings();
-        // symbol mappings
-        symbolMappings = parser.parseSymbolMappings();
-        // general settings
-        generalSettings = parser.parseGeneralSettings();
+        FontBundle bundle = FontBundle.getInstance();
+        if (bundle != null) {
+            // precompiled version of the xml files
+            fontInfo = setStyleIds(bundle.readFontInfos());
+            parameters = bundle.readParameters();
+            textStyleMappings = bundle.readTextStyleMappings();
+            defaultTextStyleMappings = bundle.readDefaultTextStyleMappings();
+            symbolMappings = bundle.readSymbolMappings();
+            generalSettings = bundle.readGeneralSettings();
+        } else {
+            DefaultTeXFontParser parser = new DefaultTeXFontParser();
+            // fonts + font descriptions
+            fontInfo = setStyleIds(parser.parseFontDescriptions(fontInfo));
+            // general font parameters
+            parameters = parser.parseParameters();
+            // text style mappings
+            textStyleMappings = parser.parseTextStyleMappings();
+            // default text style : style mappings
+            defaultTextStyleMappings = parser.parseDefaultTextStyleMappings();
+            // symbol mappings
+            symbolMappings = parser.parseSymbolMappings();
+            // general settings
+            generalSettings = parser.parseGeneralSettings();
+        }
         generalSettings.put("textfactor", 1);
+        setStyleParameters();
 
         // check if mufontid exists
-        int muFontId = generalSettings.get(DefaultTeXFontParser.MUFONTID_ATTR).intValue();
+        muFontId = generalSettings.get(DefaultTeXFontParser.MUFONTID_ATTR).intValue();
+        spaceFontId = generalSettings.get(DefaultTeXFontParser.SPACEFONTID_ATTR).intValue();
         if (muFontId < 0 || muFontId >= fontInfo.length || fontInfo[muFontId] == null)
             throw new XMLResourceParseException(
                 DefaultTeXFontParser.RESOURCE_NAME,
@@ -143,22 +188,29 @@ public class DefaultTeXFont implements TeXFont {
         addTeXFontDescription(in, file);
     }
 
-    public static void addTeXFontDescription(InputStream in, String name) throws ResourceParseException {
+    public static synchronized void addTeXFontDescription(InputStream in, String name) throws ResourceParseException {
         DefaultTeXFontParser dtfp = new DefaultTeXFontParser(in, name);
-        fontInfo = dtfp.parseFontDescriptions(fontInfo);
-        textStyleMappings.putAll(dtfp.parseTextStyleMappings());
-        symbolMappings.putAll(dtfp.parseSymbolMappings());
+        fontInfo = setStyleIds(dtfp.parseFontDescriptions(fontInfo));
+        addMappings(dtfp);
     }
 
-    public static void addTeXFontDescription(Object base, InputStream in, String name) throws ResourceParseException {
+    public static synchronized void addTeXFontDescription(Object base, InputStream in, String name) throws ResourceParseException {
         DefaultTeXFontParser dtfp = new DefaultTeXFontParser(base, in, name);
-        fontInfo = dtfp.parseFontDescriptions(fontInfo);
+        fontInfo = setStyleIds(dtfp.parseFontDescriptions(fontInfo));
         dtfp.parseExtraPath();
-        textStyleMappings.putAll(dtfp.parseTextStyleMappings());
-        symbolMappings.putAll(dtfp.parseSymbolMappings());
+        addMappings(dtfp);
+    }
+
+    private static void addMappings(DefaultTeXFontParser dtfp) throws ResourceParseException {
+        Map<String, CharFont> symbols = new HashMap<String, CharFont>(symbolMappings);
+        symbols.putAll(dtfp.parseSymbolMappings());
+        Map<String, CharFont[]> styles = new HashMap<String, CharFont[]>(textStyleMappings);
+        styles.putAll(dtfp.parseTextStyleMappings());
+        symbolMappings = symbols;
+        textStyleMappings = styles;
     }
 
-    public static void addAlphabet(Character.UnicodeBlock alphabet, InputStream inlanguage, String language, InputStream insymbols, String symbols, InputStream inmappings, String mappings) throws ResourceParseException {
+    public static synchronized void addAlphabet(Character.UnicodeBlock alphabet, InputStream inlanguage, String language, InputStream insymbols, String symbols, InputStream inmappings, String mappings) throws ResourceParseException {
         if (!loadedAlphabets.contains(alphabet)) {
             addTeXFontDescription(inlanguage, language);
             SymbolAtom.addSymbolAtom(insymbols, symbols);
@@ -167,18 +219,15 @@ public class DefaultTeXFont implements TeXFont {
         }
     }
 
-    public static void addAlphabet(Object base, Character.UnicodeBlock[] alphabet, String language) throws ResourceParseException {
+    public static synchronized void addAlphabet(Object base, Character.UnicodeBlock[] alphabet, String language) throws ResourceParseException {
         boolean b = false;
         for (int i = 0; !b && i < alphabet.length; i++) {
             b = loadedAlphabets.contains(alphabet[i]) || b;
         }
         if (!b) {
-            TeXParser.isLoading = true;
             addTeXFontDescription(base, base.getClass().getResourceAsStream(language), language);
-            for (int i = 0; i < alphabet.length; i++) {
-                loadedAlphabets.add(alphabet[i]);
-            }
-            TeXParser.isLoading = false;
+            // the blocks are marked as loaded once all the tables are published
+            loadedAlphabets.addAll(Arrays.asList(alphabet));
         }
     }
 
@@ -203,6 +252,30 @@ public class DefaultTeXFont implements TeXFont {
         }
     }
 
+    /**
+     * Load the alphabet registered for the given block if it is not already loaded.
+     * The alphabet is loaded once, the threads which need it meanwhile wait for it.
+     * @param block a Unicode block
+     */
+    static void loadAlphabet(Character.UnicodeBlock block) {
+        // the thread which is loading an alphabet holds the lock: the formulas parsed
+        // while loading must not trigger the loading of another alphabet
+        if (!loadedAlphabets.contains(block) && !Thread.holdsLock(DefaultTeXFont.class)) {
+            AlphabetRegistration reg = registeredAlphabets.get(block);
+            if (reg != null) {
+                addAlphabet(reg);
+            }
+        }
+    }
+
+    /**
+     * @param name the id of a font in the resource files
+     * @return the id of the loaded font or -1 if it is not loaded
+     */
+    static int getFontId(String name) {
+        return DefaultTeXFontParser.Font_ID.indexOf(name);
+    }
+
     public static void registerAlphabet(AlphabetRegistration reg) {
         Character.UnicodeBlock[] blocks = reg.getUnicodeBlock();
         for (int i = 0; i < blocks.length; i++) {
@@ -227,27 +300,27 @@ public class DefaultTeXFont implements TeXFont {
     }
 
     public float getAxisHeight(int style) {
-        return getParameter("axisheight") * getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT;
+        return getStyleParameters(style)[AXISHEIGHT] * TeXFormula.PIXELS_PER_POINT;
     }
 
     public float getBigOpSpacing1(int style) {
-        return getParameter("bigopspacing1") * getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT;
+        return getStyleParameters(style)[BIGOPSPACING1] * TeXFormula.PIXELS_PER_POINT;
     }
 
     public float getBigOpSpacing2(int style) {
-        return getParameter("bigopspacing2") * getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT;
+        return getStyleParameters(style)[BIGOPSPACING2] * TeXFormula.PIXELS_PER_POINT;
     }
 
     public float getBigOpSpacing3(int style) {
-        return getParameter("bigopspacing3") * getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT;
+        return getStyleParameters(style)[BIGOPSPACING3] * TeXFormula.PIXELS_PER_POINT;
     }
 
     public float getBigOpSpacing4(int style) {
-        return getParameter("bigopspacing4") * getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT;
+        return getStyleParameters(style)[BIGOPSPACING4] * TeXFormula.PIXELS_PER_POINT;
     }
 
     public float getBigOpSpacing5(int style) {
-        return getParameter("bigopspacing5") * getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT;
+        return getStyleParameters(style)[BIGOPSPACING5] * TeXFormula.PIXELS_PER_POINT;
     }
 
     private Char getChar(char c, CharFont[] cf, int style) {
@@ -270,7 +343,7 @@ public class DefaultTeXFont implements TeXFont {
         if (cf[kind] == null)
             return getDefaultChar(c, style);
         else
-            return getChar(new CharFont((char) (cf[kind].c + offset), cf[kind].fontId), style);
+            return getChar((char) (cf[kind].c + offset), cf[kind].fontId, cf[kind].fontId, style);
     }
 
     public Char getChar(char c, String textStyle, int style) throws TextStyleMappingNotFoundException {
@@ -282,36 +355,69 @@ public class DefaultTeXFont implements TeXFont {
     }
 
     public Char getChar(CharFont cf, int style) {
-        float fsize = getSizeFactor(style);
-        int id = isBold ? cf.boldFontId : cf.fontId;
-        FontInfo info = fontInfo[id];
-        if (isBold && cf.fontId == cf.boldFontId) {
-            id = info.getBoldId();
-            info = fontInfo[id];
-            cf = new CharFont(cf.c, id, style);
-        }
-        if (isRoman) {
-            id = info.getRomanId();
-            info = fontInfo[id];
-            cf = new CharFont(cf.c, id, style);
+        return getChar(cf.c, cf.fontId, cf.boldFontId, style);
+    }
+
+    private Char getChar(char c, int fontId, int boldFontId, int style) {
+        int id = isBold ? boldFontId : fontId;
+        if (isBold && fontId == boldFontId) {
+            id = fontInfo[id].getBoldId();
         }
-        if (isSs) {
-            id = info.getSsId();
-            info = fontInfo[id];
-            cf = new CharFont(cf.c, id, style);
+        int mask = (isRoman ? ROMAN : 0) | (isSs ? SS : 0) | (isTt ? TT : 0) | (isIt ? ITALIC : 0);
+        if (mask != 0) {
+            id = fontInfo[id].getStyleId(mask);
         }
-        if (isTt) {
-            id = info.getTtId();
-            info = fontInfo[id];
-            cf = new CharFont(cf.c, id, style);
+
+        return getCachedChar(c, id, factor * getSizeFactor(style));
+    }
+
+    /**
+     * @return the (shared) Char for the character c of the font id at the given size
+     */
+    private static Char getCachedChar(char c, int id, float size) {
+        // the metrics depend on the effective size, which changes with the target DPI
+        float pixels = size * TeXFormula.PIXELS_PER_POINT;
+        int h = ((id * 31 + c) * 31 + Float.floatToIntBits(size)) * 31 + Float.floatToIntBits(pixels);
+        h = (h * 0x9E3779B9) >>> 20;
+        Char ch = charCache[h & (CHAR_CACHE_SIZE - 1)];
+        if (ch == null || ch.getChar() != c || ch.getFontCode() != id || ch.getMetrics().getSize() != size
+            || ch.getMetrics().getFactor() != pixels) {
+            FontInfo info = fontInfo[id];
+            float[] m = info.getMetricsTable();
+            int i = info.getMetricsOffset(c);
+            ch = new Char(c, info.getFont(), id, new Metrics(m[i + WIDTH], m[i + HEIGHT], m[i + DEPTH], m[i + IT], pixels, size));
+            charCache[h & (CHAR_CACHE_SIZE - 1)] = ch;
         }
-        if (isIt) {
-            id = info.getItId();
-            info = fontInfo[id];
-            cf = new CharFont(cf.c, id, style);
+
+        return ch;
+    }
+
+    /**
+     * Compute the font ids of the roman, ss, tt and it remappings.
+     */
+    private static FontInfo[] setStyleIds(FontInfo[] infos) {
+        for (int id = 0; id < infos.length; id++) {
+            int[] ids = new int[16];
+            for (int mask = 0; mask < ids.length; mask++) {
+                int i = id;
+                if ((mask & ROMAN) != 0) {
+                    i = infos[i].getRomanId();
+                }
+                if ((mask & SS) != 0) {
+                    i = infos[i].getSsId();
+                }
+                if ((mask & TT) != 0) {
+                    i = infos[i].getTtId();
+                }
+                if ((mask & ITALIC) != 0) {
+                    i = infos[i].getItId();
+                }
+                ids[mask] = i;
+            }
+            infos[id].setStyleIds(ids);
         }
-        Font font = info.getFont();
-        return new Char(cf.c, font, id, getMetrics(cf, factor * fsize));
+
+        return infos;
     }
 
     public Char getChar(String symbolName, int style) throws SymbolMappingNotFoundException {
@@ -336,19 +442,18 @@ public class DefaultTeXFont implements TeXFont {
     }
 
     public float getDefaultRuleThickness(int style) {
-        return getParameter("defaultrulethickness") * getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT;
+        return getStyleParameters(style)[DEFAULTRULETHICKNESS] * TeXFormula.PIXELS_PER_POINT;
     }
 
     public float getDenom1(int style) {
-        return getParameter("denom1") * getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT;
+        return getStyleParameters(style)[DENOM1] * TeXFormula.PIXELS_PER_POINT;
     }
 
     public float getDenom2(int style) {
-        return getParameter("denom2") * getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT;
+        return getStyleParameters(style)[DENOM2] * TeXFormula.PIXELS_PER_POINT;
     }
 
     public Extension getExtension(Char c, int style) {
-        Font f = c.getFont();
         int fc = c.getFontCode();
         float s = getSizeFactor(style);
 
@@ -360,7 +465,7 @@ public class DefaultTeXFont implements TeXFont {
             if (ext[i] == NONE) {
                 parts[i] = null;
             } else {
-                parts[i] = new Char((char) ext[i], f, fc, getMetrics(new CharFont((char) ext[i], fc), s));
+                parts[i] = getCachedChar((char) ext[i], fc, s);
             }
         }
 
@@ -385,33 +490,26 @@ public class DefaultTeXFont implements TeXFont {
         }
     }
 
-    private Metrics getMetrics(CharFont cf, float size) {
-        FontInfo info = fontInfo[cf.fontId];
-        float[] m = info.getMetrics(cf.c);
-        return new Metrics(m[WIDTH], m[HEIGHT], m[DEPTH], m[IT], size * TeXFormula.PIXELS_PER_POINT, size);
-    }
-
     public int getMuFontId() {
-        return generalSettings.get(DefaultTeXFontParser.MUFONTID_ATTR).intValue();
+        return muFontId;
     }
 
     public Char getNextLarger(Char c, int style) {
         FontInfo info = fontInfo[c.getFontCode()];
         CharFont ch = info.getNextLarger(c.getChar());
-        FontInfo newInfo = fontInfo[ch.fontId];
-        return new Char(ch.c, newInfo.getFont(), ch.fontId, getMetrics(ch, getSizeFactor(style)));
+        return getCachedChar(ch.c, ch.fontId, getSizeFactor(style));
     }
 
     public float getNum1(int style) {
-        return getParameter("num1") * getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT;
+        return getStyleParameters(style)[NUM1] * TeXFormula.PIXELS_PER_POINT;
     }
 
     public float getNum2(int style) {
-        return getParameter("num2") * getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT;
+        return getStyleParameters(style)[NUM2] * TeXFormula.PIXELS_PER_POINT;
     }
 
     public float getNum3(int style) {
-        return getParameter("num3") * getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT;
+        return getStyleParameters(style)[NUM3] * TeXFormula.PIXELS_PER_POINT;
     }
 
     public float getQuad(int style, int fontCode) {
@@ -433,37 +531,36 @@ public class DefaultTeXFont implements TeXFont {
     }
 
     public float getSpace(int style) {
-        int spaceFontId = generalSettings.get(DefaultTeXFontParser.SPACEFONTID_ATTR).intValue();
         FontInfo info = fontInfo[spaceFontId];
         return info.getSpace(getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT);
     }
 
     public float getSub1(int style) {
-        return getParameter("sub1") * getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT;
+        return getStyleParameters(style)[SUB1] * TeXFormula.PIXELS_PER_POINT;
     }
 
     public float getSub2(int style) {
-        return getParameter("sub2") * getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT;
+        return getStyleParameters(style)[SUB2] * TeXFormula.PIXELS_PER_POINT;
     }
 
     public float getSubDrop(int style) {
-        return getParameter("subdrop") * getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT;
+        return getStyleParameters(style)[SUBDROP] * TeXFormula.PIXELS_PER_POINT;
     }
 
     public float getSup1(int style) {
-        return getParameter("sup1") * getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT;
+        return getStyleParameters(style)[SUP1] * TeXFormula.PIXELS_PER_POINT;
     }
 
     public float getSup2(int style) {
-        return getParameter("sup2") * getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT;
+        return getStyleParameters(style)[SUP2] * TeXFormula.PIXELS_PER_POINT;
     }
 
     public float getSup3(int style) {
-        return getParameter("sup3") * getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT;
+        return getStyleParameters(style)[SUP3] * TeXFormula.PIXELS_PER_POINT;
     }
 
     public float getSupDrop(int style) {
-        return getParameter("supdrop") * getSizeFactor(style) * TeXFormula.PIXELS_PER_POINT;
+        return getStyleParameters(style)[SUPDROP] * TeXFormula.PIXELS_PER_POINT;
     }
 
     public float getXHeight(int style, int fontCode) {
@@ -531,6 +628,7 @@ public class DefaultTeXFont implements TeXFont {
             generalSettings.put("scriptfactor", Math.abs(ss / ds));
             generalSettings.put("scriptscriptfactor", Math.abs(sss / ds));
             generalSettings.put("textfactor", Math.abs(ts / ds));
+            setStyleParameters();
             TeXIcon.defaultSize = Math.abs(ds);
         }
     }
@@ -545,22 +643,40 @@ public class DefaultTeXFont implements TeXFont {
         magnificationEnable = b;
     }
 
-    private static float getParameter(String parameterName) {
-        Object param = parameters.get(parameterName);
-        if (param == null)
-            return 0;
-        else
-            return ((Float) param).floatValue();
+    /**
+     * Resolve the font parameters and the size factors for each style.
+     */
+    private static void setStyleParameters() {
+        float[] factors = { 1, generalSettings.get("textfactor").floatValue(),
+                            generalSettings.get("scriptfactor").floatValue(),
+                            generalSettings.get("scriptscriptfactor").floatValue() };
+        float[][] params = new float[factors.length][SIZE_FACTOR + 1];
+        for (int i = 0; i < PARAMETER_NAMES.length; i++) {
+            Float param = parameters.get(PARAMETER_NAMES[i]);
+            if (param != null) {
+                for (int j = 0; j < factors.length; j++) {
+                    params[j][i] = param.floatValue() * factors[j];
+                }
+            }
+        }
+        for (int j = 0; j < factors.length; j++) {
+            params[j][SIZE_FACTOR] = factors[j];
+        }
+        styleParameters = params;
     }
 
-    public static float getSizeFactor(int style) {
+    private static float[] getStyleParameters(int style) {
         if (style < TeXConstants.STYLE_TEXT)
-            return 1;
+            return styleParameters[0];
         else if (style < TeXConstants.STYLE_SCRIPT)
-            return generalSettings.get("textfactor").floatValue();
+            return styleParameters[1];
         else if (style < TeXConstants.STYLE_SCRIPT_SCRIPT)
-            return generalSettings.get("scriptfactor").floatValue();
+            return styleParameters[2];
         else
-            return generalSettings.get("scriptscriptfactor").floatValue();
+            return styleParameters[3];
+    }
+
+    public static float getSizeFactor(int style) {
+        return getStyleParameters(style)[SIZE_FACTOR];
     }
 }
@@ -265,18 +265,24 @@ public class DefaultTeXFontParser {
 	res.add(info);
 
 	for (int i = 0; i < res.size(); i++) {
-	    FontInfo fin = res.get(i);
-	    fin.setBoldId(Font_ID.indexOf(fin.boldVersion));
-	    fin.setRomanId(Font_ID.indexOf(fin.romanVersion));
-	    fin.setSsId(Font_ID.indexOf(fin.ssVersion));
-	    fin.setTtId(Font_ID.indexOf(fin.ttVersion));
-	    fin.setItId(Font_ID.indexOf(fin.itVersion));
+	    setVersionIds(res.get(i));
 	}
 	
 	parsedTextStyles = parseStyleMappings();
 	return res.toArray(fi);
     }
     
+    /**
+     * Resolve the ids of the bold, roman, ... versions of a font.
+     */
+    static void setVersionIds(FontInfo fin) {
+	fin.setBoldId(Font_ID.indexOf(fin.boldVersion));
+	fin.setRomanId(Font_ID.indexOf(fin.romanVersion));
+	fin.setSsId(Font_ID.indexOf(fin.ssVersion));
+	fin.setTtId(Font_ID.indexOf(fin.ttVersion));
+	fin.setItId(Font_ID.indexOf(fin.itVersion));
+    }
+
     public FontInfo[] parseFontDescriptions(FontInfo[] fi) throws ResourceParseException {
 	Element fontDescriptions = (Element)root.getElementsByTagName("FontDescriptions").item(0);
         if (fontDescriptions != null) { // element present
@@ -345,32 +351,12 @@ public class DefaultTeXFontParser {
     }
     
     public static Font createFont(String name) throws ResourceParseException {
-	return createFont(DefaultTeXFontParser.class.getResourceAsStream(name), name);
+	return FontCache.getFont(null, name);
     }
 
     public static Font createFont(InputStream fontIn, String name) throws ResourceParseException {
         try {
-            Font f = Font.createFont(Font.TRUETYPE_FONT, fontIn).deriveFont(TeXFormula.PIXELS_PER_POINT);
-	    GraphicsEnvironment graphicEnv = GraphicsEnvironment.getLocalGraphicsEnvironment();
-	    /**
-	     * The following fails under java 1.5
-	     * graphicEnv.registerFont(f);
-	     * dynamic load then
-	     */
-	    if (shouldRegisterFonts) {
-		try {
-		    Method registerFontMethod = graphicEnv.getClass().getMethod("registerFont", new Class[] { Font.class });
-		    if ((Boolean) registerFontMethod.invoke(graphicEnv, new Object[] { f }) == Boolean.FALSE) {
-			System.err.println("Cannot register the font " + f.getFontName());
-		    }
-		} catch (Exception ex) {
-		    if (!registerFontExceptionDisplayed) {
-			System.err.println("Warning: Jlatexmath: Could not access to registerFont. Please update to java 6");
-			registerFontExceptionDisplayed = true;
-		    }
-		}
-	    }
-	    return f;
+            return registerFont(Font.createFont(Font.TRUETYPE_FONT, fontIn).deriveFont(TeXFormula.PIXELS_PER_POINT));
         } catch (Exception e) {
             throw new XMLResourceParseException(RESOURCE_NAME
 						+ ": error reading font '" + name + "'. Error message: "
@@ -384,6 +370,39 @@ public class DefaultTeXFontParser {
             }
         }
     }
+
+    static Font createFont(File file, String name) throws ResourceParseException {
+        try {
+            return registerFont(Font.createFont(Font.TRUETYPE_FONT, file).deriveFont(TeXFormula.PIXELS_PER_POINT));
+        } catch (Exception e) {
+            throw new XMLResourceParseException(RESOURCE_NAME
+						+ ": error reading font '" + name + "'. Error message: "
+						+ e.getMessage());
+        }
+    }
+
+    private static Font registerFont(Font f) {
+	GraphicsEnvironment graphicEnv = GraphicsEnvironment.getLocalGraphicsEnvironment();
+	/**
+	 * The following fails under java 1.5
+	 * graphicEnv.registerFont(f);
+	 * dynamic load then
+	 */
+	if (shouldRegisterFonts) {
+	    try {
+		Method registerFontMethod = graphicEnv.getClass().getMethod("registerFont", new Class[] { Font.class });
+		if ((Boolean) registerFontMethod.invoke(graphicEnv, new Object[] { f }) == Boolean.FALSE) {
+		    System.err.println("Cannot register the font " + f.getFontName());
+		}
+	    } catch (Exception ex) {
+		if (!registerFontExceptionDisplayed) {
+		    System.err.println("Warning: Jlatexmath: Could not access to registerFont. Please update to java 6");
+		    registerFontExceptionDisplayed = true;
+		}
+	    }
+	}
+	return f;
+    }
     
     public Map<String,CharFont> parseSymbolMappings() throws ResourceParseException {
         Map<String,CharFont> res = new HashMap<String,CharFont>();
@@ -0,0 +1,418 @@
+/* DisplayList.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A laid-out formula stored as a flat list of drawing records (glyphs, rules,
+ * paths and color changes) in formula units. A display list can be written to
+ * a compact binary form and read back later (from a stream, a byte buffer or a
+ * memory-mapped file) to produce new rasters at any size or color without
+ * parsing the formula or building its box tree again.
+ * <p>
+ * The binary form is made of a versioned header (magic, version, dimensions,
+ * default point size), a font table (the font ids of the resource files,
+ * which are stable between runs) and the records.
+ */
+public final class DisplayList {
+
+    /**
+     * Magic number of the binary form ("JLMD").
+     */
+    public static final int MAGIC = 0x4A4C4D44;
+
+    /**
+     * Current version of the binary form.
+     */
+    public static final short VERSION = 1;
+
+    static final byte OP_DEFAULT_COLOR = 1;
+    static final byte OP_COLOR = 2;
+    static final byte OP_GLYPH = 3;
+    static final byte OP_TRANSFORMED_GLYPH = 4;
+    static final byte OP_RULE = 5;
+    static final byte OP_PATH = 6;
+
+    private final float width;
+    private final float height;
+    private final float depth;
+    private final float size;
+    private final String[] fonts;
+    private final float[] fontSizes;
+    private final ByteBuffer records;
+
+    DisplayList(float width, float height, float depth, float size, String[] fonts, float[] fontSizes, ByteBuffer records) {
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.size = size;
+        this.fonts = fonts;
+        this.fontSizes = fontSizes;
+        this.records = records;
+    }
+
+    /**
+     * Record the box of a TeXIcon.
+     *
+     * @param icon the icon to record
+     * @return the display list or null if the formula contains elements which
+     * cannot be recorded (like images)
+     */
+    public static DisplayList record(TeXIcon icon) {
+        Box box = icon.getBox();
+        DisplayListRecorder recorder = new DisplayListRecorder();
+        box.draw(recorder, 0, 0);
+        recorder.dispose();
+        if (!recorder.isComplete()) {
+            return null;
+        }
+
+        return recorder.getDisplayList(box.getWidth(), box.getHeight(), box.getDepth(), icon.getSize());
+    }
+
+    /**
+     * Read a display list from a file through a memory map.
+     *
+     * @param file the file to read
+     * @return the display list
+     * @throws IOException if the file cannot be read or is not a valid display list
+     */
+    public static DisplayList read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Read a display list from a stream. The stream is not closed.
+     *
+     * @param in the stream to read
+     * @return the display list
+     * @throws IOException if the stream cannot be read or is not a valid display list
+     */
+    public static DisplayList read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+
+        return read(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    /**
+     * Read a display list from a buffer. The records are not copied, so the
+     * buffer must not be modified afterwards.
+     *
+     * @param buffer the buffer to read
+     * @return the display list
+     * @throws IOException if the buffer does not contain a valid display list
+     */
+    public static DisplayList read(ByteBuffer buffer) throws IOException {
+        ByteBuffer buf = buffer.duplicate();
+        try {
+            if (buf.getInt() != MAGIC) {
+                throw new IOException("Not a display list");
+            }
+            short version = buf.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported display list version " + version);
+            }
+            buf.getShort(); // flags, unused for now
+            float width = buf.getFloat();
+            float height = buf.getFloat();
+            float depth = buf.getFloat();
+            float size = buf.getFloat();
+            int nfonts = buf.getShort() & 0xFFFF;
+            String[] fonts = new String[nfonts];
+            float[] fontSizes = new float[nfonts];
+            for (int i = 0; i < nfonts; i++) {
+                char[] name = new char[buf.get() & 0xFF];
+                for (int j = 0; j < name.length; j++) {
+                    name[j] = buf.getChar();
+                }
+                fonts[i] = new String(name);
+                if (DefaultTeXFont.getFontId(fonts[i]) == -1) {
+                    throw new IOException("Unknown font " + fonts[i]);
+                }
+                fontSizes[i] = buf.getFloat();
+            }
+            int length = buf.getInt();
+            if (length < 0 || length > buf.remaining()) {
+                throw new IOException("Truncated display list");
+            }
+            buf.limit(buf.position() + length);
+            ByteBuffer records = buf.slice();
+            checkRecords(records.duplicate(), nfonts);
+
+            return new DisplayList(width, height, depth, size, fonts, fontSizes, records);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated display list");
+        }
+    }
+
+    /*
+     * Check the records which have been read, so a corrupt display list is rejected
+     * here and not when it is painted.
+     */
+    private static void checkRecords(ByteBuffer buf, int nfonts) throws IOException {
+        while (buf.hasRemaining()) {
+            byte op = buf.get();
+            switch (op) {
+            case OP_DEFAULT_COLOR :
+                break;
+            case OP_COLOR :
+                buf.getInt();
+                break;
+            case OP_GLYPH :
+            case OP_TRANSFORMED_GLYPH :
+                int font = buf.getShort();
+                if (font < 0 || font >= nfonts) {
+                    throw new IOException("Invalid font index " + font);
+                }
+                skip(buf, 2 + (op == OP_GLYPH ? 3 : 6) * 4);
+                break;
+            case OP_RULE :
+                skip(buf, 4 * 4);
+                break;
+            case OP_PATH :
+                buf.get();
+                int n = buf.getInt();
+                if (n < 0) {
+                    throw new IOException("Invalid path length " + n);
+                }
+                for (int i = 0; i < n; i++) {
+                    switch (buf.get()) {
+                    case PathIterator.SEG_MOVETO :
+                    case PathIterator.SEG_LINETO :
+                        skip(buf, 2 * 4);
+                        break;
+                    case PathIterator.SEG_QUADTO :
+                        skip(buf, 4 * 4);
+                        break;
+                    case PathIterator.SEG_CUBICTO :
+                        skip(buf, 6 * 4);
+                        break;
+                    default :
+                    }
+                }
+                break;
+            default :
+                throw new IOException("Invalid display list record " + op);
+            }
+        }
+    }
+
+    private static void skip(ByteBuffer buf, int n) {
+        if (buf.remaining() < n) {
+            throw new BufferUnderflowException();
+        }
+        buf.position(buf.position() + n);
+    }
+
+    /**
+     * Write this display list in its binary form.
+     *
+     * @param out the stream where to write
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(MAGIC);
+        dos.writeShort(VERSION);
+        dos.writeShort(0);
+        dos.writeFloat(width);
+        dos.writeFloat(height);
+        dos.writeFloat(depth);
+        dos.writeFloat(size);
+        dos.writeShort(fonts.length);
+        for (int i = 0; i < fonts.length; i++) {
+            dos.writeByte(fonts[i].length());
+            dos.writeChars(fonts[i]);
+            dos.writeFloat(fontSizes[i]);
+        }
+        ByteBuffer buf = records.duplicate();
+        buf.rewind();
+        dos.writeInt(buf.remaining());
+        byte[] arr = new byte[buf.remaining()];
+        buf.get(arr);
+        dos.write(arr);
+        dos.flush();
+    }
+
+    /**
+     * @return the binary form of this display list
+     */
+    public byte[] toByteArray() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + records.capacity());
+        try {
+            write(out);
+        } catch (IOException e) {
+            // cannot happen with a ByteArrayOutputStream
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Creates a TeXIcon painting this display list.
+     *
+     * @param size the point size
+     * @return the created TeXIcon
+     */
+    public TeXIcon createTeXIcon(float size) {
+        return new TeXIcon(new DisplayListBox(this), size);
+    }
+
+    /**
+     * @return the point size the formula was laid out with
+     */
+    public float getSize() {
+        return size;
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public float getHeight() {
+        return height;
+    }
+
+    public float getDepth() {
+        return depth;
+    }
+
+    /**
+     * Paint the records with the origin on the baseline at the left of the formula.
+     * The current color of the graphics is used for the records which have no
+     * color of their own.
+     *
+     * @param g2 the graphics where to paint
+     * @param x the x-coordinate of the origin
+     * @param y the y-coordinate of the origin
+     */
+    void paint(Graphics2D g2, float x, float y) {
+        AffineTransform oldAt = g2.getTransform();
+        Color defaultColor = g2.getColor();
+        Font[] fnts = new Font[fonts.length];
+        float[] scales = new float[fonts.length];
+        GeneralPath path = new GeneralPath();
+        char[] arr = new char[1];
+        ByteBuffer buf = records.duplicate();
+        buf.rewind();
+
+        g2.translate(x, y);
+        AffineTransform at = g2.getTransform();
+        while (buf.hasRemaining()) {
+            byte op = buf.get();
+            switch (op) {
+            case OP_DEFAULT_COLOR :
+                g2.setColor(defaultColor);
+                break;
+            case OP_COLOR :
+                g2.setColor(new Color(buf.getInt(), true));
+                break;
+            case OP_GLYPH :
+            case OP_TRANSFORMED_GLYPH :
+                int font = buf.getShort();
+                arr[0] = buf.getChar();
+                if (fnts[font] == null) {
+                    int id = DefaultTeXFont.getFontId(fonts[font]);
+                    fnts[font] = FontInfo.getFont(id);
+                    scales[font] = fontSizes[font] / fnts[font].getSize2D();
+                }
+                if (op == OP_GLYPH) {
+                    g2.translate(buf.getFloat(), buf.getFloat());
+                    float scl = buf.getFloat() * scales[font];
+                    g2.scale(scl, scl);
+                } else {
+                    g2.transform(new AffineTransform(buf.getFloat(), buf.getFloat(), buf.getFloat(), buf.getFloat(), buf.getFloat(), buf.getFloat()));
+                    g2.scale(scales[font], scales[font]);
+                }
+                g2.setFont(fnts[font]);
+                g2.drawChars(arr, 0, 1, 0, 0);
+                g2.setTransform(at);
+                break;
+            case OP_RULE :
+                g2.fill(new Rectangle2D.Float(buf.getFloat(), buf.getFloat(), buf.getFloat(), buf.getFloat()));
+                break;
+            case OP_PATH :
+                path.reset();
+                path.setWindingRule(buf.get());
+                int n = buf.getInt();
+                for (int i = 0; i < n; i++) {
+                    switch (buf.get()) {
+                    case PathIterator.SEG_MOVETO :
+                        path.moveTo(buf.getFloat(), buf.getFloat());
+                        break;
+                    case PathIterator.SEG_LINETO :
+                        path.lineTo(buf.getFloat(), buf.getFloat());
+                        break;
+                    case PathIterator.SEG_QUADTO :
+                        path.quadTo(buf.getFloat(), buf.getFloat(), buf.getFloat(), buf.getFloat());
+                        break;
+                    case PathIterator.SEG_CUBICTO :
+                        path.curveTo(buf.getFloat(), buf.getFloat(), buf.getFloat(), buf.getFloat(), buf.getFloat(), buf.getFloat());
+                        break;
+                    default :
+                        path.closePath();
+                    }
+                }
+                g2.fill(path);
+                break;
+            default :
+                throw new IllegalStateException("Invalid display list record " + op);
+            }
+        }
+
+        g2.setTransform(oldAt);
+        g2.setColor(defaultColor);
+    }
+}
@@ -0,0 +1,54 @@
+/* DisplayListBox.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+import java.awt.Graphics2D;
+
+/**
+ * A box painting a previously recorded {@link DisplayList}.
+ */
+public class DisplayListBox extends Box {
+
+    private final DisplayList list;
+
+    public DisplayListBox(DisplayList list) {
+        this.list = list;
+        width = list.getWidth();
+        height = list.getHeight();
+        depth = list.getDepth();
+    }
+
+    public void draw(Graphics2D g2, float x, float y) {
+        startDraw(g2, x, y);
+        list.paint(g2, x, y);
+        endDraw(g2);
+    }
+
+    public int getLastFontId() {
+        return TeXFont.NO_FONT;
+    }
+}
@@ -0,0 +1,542 @@
+/* DisplayListRecorder.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Arc2D;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.AttributedCharacterIterator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Graphics2D recording the drawing operations of a box tree into a {@link DisplayList}.
+ * The graphics state (transform, font, stroke, ...) is kept by a scratch graphics.
+ */
+class DisplayListRecorder extends Graphics2D {
+
+    /**
+     * The color used by the boxes which have no color of their own.
+     */
+    private static final Color DEFAULT = new Color(0, 0, 0);
+
+    private final Output out;
+    private final Graphics2D g;
+    private Color color;
+
+    DisplayListRecorder() {
+        out = new Output();
+        g = out.scratch.createGraphics();
+        color = DEFAULT;
+    }
+
+    private DisplayListRecorder(DisplayListRecorder parent) {
+        out = parent.out;
+        g = (Graphics2D) parent.g.create();
+        color = parent.color;
+    }
+
+    /**
+     * @return false if something has been painted which cannot be recorded
+     */
+    boolean isComplete() {
+        return out.complete;
+    }
+
+    DisplayList getDisplayList(float width, float height, float depth, float size) {
+        int n = out.fonts.size();
+        String[] fonts = new String[n];
+        float[] fontSizes = new float[n];
+        for (int i = 0; i < n; i++) {
+            fonts[i] = DefaultTeXFontParser.Font_ID.get(out.fonts.get(i).intValue());
+            fontSizes[i] = out.fontSizes.get(i).floatValue();
+        }
+
+        return new DisplayList(width, height, depth, size, fonts, fontSizes, ByteBuffer.wrap(out.bytes.toByteArray()));
+    }
+
+    private void writeColor() throws IOException {
+        if (color != out.lastColor) {
+            if (color == DEFAULT) {
+                out.data.writeByte(DisplayList.OP_DEFAULT_COLOR);
+            } else {
+                out.data.writeByte(DisplayList.OP_COLOR);
+                out.data.writeInt(color.getRGB());
+            }
+            out.lastColor = color;
+        }
+    }
+
+    private int getFontId(Font font) {
+        Integer id = out.fontIds.get(font);
+        if (id == null) {
+            id = FontInfo.getFontId(font);
+            out.fontIds.put(font, id);
+        }
+
+        return id;
+    }
+
+    private void writeGlyph(Font font, char c, float x, float y) throws IOException {
+        int id = getFontId(font);
+        Integer index = out.fontIndex.get(id);
+        if (index == null) {
+            index = out.fonts.size();
+            out.fontIndex.put(id, index);
+            out.fonts.add(id);
+            out.fontSizes.add(font.getSize2D());
+        }
+
+        AffineTransform at = new AffineTransform(g.getTransform());
+        at.translate(x, y);
+        writeColor();
+        if (at.getShearX() == 0 && at.getShearY() == 0 && at.getScaleX() == at.getScaleY() && at.getScaleX() > 0) {
+            out.data.writeByte(DisplayList.OP_GLYPH);
+            out.data.writeShort(index);
+            out.data.writeChar(c);
+            out.data.writeFloat((float) at.getTranslateX());
+            out.data.writeFloat((float) at.getTranslateY());
+            out.data.writeFloat((float) at.getScaleX());
+        } else {
+            double[] m = new double[6];
+            at.getMatrix(m);
+            out.data.writeByte(DisplayList.OP_TRANSFORMED_GLYPH);
+            out.data.writeShort(index);
+            out.data.writeChar(c);
+            for (int i = 0; i < m.length; i++) {
+                out.data.writeFloat((float) m[i]);
+            }
+        }
+    }
+
+    private void writeShape(Shape s) throws IOException {
+        AffineTransform at = g.getTransform();
+        writeColor();
+        if (s instanceof Rectangle2D && at.getShearX() == 0 && at.getShearY() == 0) {
+            Rectangle2D r = at.createTransformedShape(s).getBounds2D();
+            out.data.writeByte(DisplayList.OP_RULE);
+            out.data.writeFloat((float) r.getX());
+            out.data.writeFloat((float) r.getY());
+            out.data.writeFloat((float) r.getWidth());
+            out.data.writeFloat((float) r.getHeight());
+            return;
+        }
+
+        PathIterator it = s.getPathIterator(at);
+        ByteArrayOutputStream segs = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(segs);
+        float[] coords = new float[6];
+        int n = 0;
+        for (; !it.isDone(); it.next(), n++) {
+            int type = it.currentSegment(coords);
+            int ncoords = 0;
+            switch (type) {
+            case PathIterator.SEG_MOVETO :
+            case PathIterator.SEG_LINETO :
+                ncoords = 2;
+                break;
+            case PathIterator.SEG_QUADTO :
+                ncoords = 4;
+                break;
+            case PathIterator.SEG_CUBICTO :
+                ncoords = 6;
+                break;
+            }
+            dos.writeByte(type);
+            for (int i = 0; i < ncoords; i++) {
+                dos.writeFloat(coords[i]);
+            }
+        }
+        out.data.writeByte(DisplayList.OP_PATH);
+        out.data.writeByte(it.getWindingRule());
+        out.data.writeInt(n);
+        segs.writeTo(out.data);
+    }
+
+    public void fill(Shape s) {
+        try {
+            writeShape(s);
+        } catch (IOException e) {
+            out.complete = false;
+        }
+    }
+
+    public void draw(Shape s) {
+        fill(g.getStroke().createStrokedShape(s));
+    }
+
+    public void drawString(String str, float x, float y) {
+        Font font = g.getFont();
+        if (str.length() == 1 && getFontId(font) != TeXFont.NO_FONT) {
+            try {
+                writeGlyph(font, str.charAt(0), x, y);
+            } catch (IOException e) {
+                out.complete = false;
+            }
+        } else {
+            drawGlyphVector(font.createGlyphVector(getFontRenderContext(), str), x, y);
+        }
+    }
+
+    public void drawString(String str, int x, int y) {
+        drawString(str, (float) x, (float) y);
+    }
+
+    public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+        fill(new TextLayout(iterator, getFontRenderContext()).getOutline(AffineTransform.getTranslateInstance(x, y)));
+    }
+
+    public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+        drawString(iterator, (float) x, (float) y);
+    }
+
+    public void drawGlyphVector(GlyphVector gv, float x, float y) {
+        fill(gv.getOutline(x, y));
+    }
+
+    public void drawLine(int x1, int y1, int x2, int y2) {
+        draw(new Line2D.Float(x1, y1, x2, y2));
+    }
+
+    public void fillRect(int x, int y, int width, int height) {
+        fill(new Rectangle(x, y, width, height));
+    }
+
+    public void clearRect(int x, int y, int width, int height) {
+        out.complete = false;
+    }
+
+    public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        draw(new RoundRectangle2D.Float(x, y, width, height, arcWidth, arcHeight));
+    }
+
+    public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        fill(new RoundRectangle2D.Float(x, y, width, height, arcWidth, arcHeight));
+    }
+
+    public void drawOval(int x, int y, int width, int height) {
+        draw(new Ellipse2D.Float(x, y, width, height));
+    }
+
+    public void fillOval(int x, int y, int width, int height) {
+        fill(new Ellipse2D.Float(x, y, width, height));
+    }
+
+    public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        draw(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.OPEN));
+    }
+
+    public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        fill(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.PIE));
+    }
+
+    public void drawPolyline(int[] xPoints, int[] yPoints, int nPoints) {
+        if (nPoints > 0) {
+            Path2D.Float path = new Path2D.Float();
+            path.moveTo(xPoints[0], yPoints[0]);
+            for (int i = 1; i < nPoints; i++) {
+                path.lineTo(xPoints[i], yPoints[i]);
+            }
+            draw(path);
+        }
+    }
+
+    public void drawPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        draw(new Polygon(xPoints, yPoints, nPoints));
+    }
+
+    public void fillPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        fill(new Polygon(xPoints, yPoints, nPoints));
+    }
+
+    public boolean drawImage(Image img, AffineTransform xform, ImageObserver obs) {
+        out.complete = false;
+        return true;
+    }
+
+    public void drawImage(BufferedImage img, BufferedImageOp op, int x, int y) {
+        out.complete = false;
+    }
+
+    public void drawRenderedImage(RenderedImage img, AffineTransform xform) {
+        out.complete = false;
+    }
+
+    public void drawRenderableImage(RenderableImage img, AffineTransform xform) {
+        out.complete = false;
+    }
+
+    public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
+        out.complete = false;
+        return true;
+    }
+
+    public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer) {
+        out.complete = false;
+        return true;
+    }
+
+    public boolean drawImage(Image img, int x, int y, Color bgcolor, ImageObserver observer) {
+        out.complete = false;
+        return true;
+    }
+
+    public boolean drawImage(Image img, int x, int y, int width, int height, Color bgcolor, ImageObserver observer) {
+        out.complete = false;
+        return true;
+    }
+
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, ImageObserver observer) {
+        out.complete = false;
+        return true;
+    }
+
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, Color bgcolor, ImageObserver observer) {
+        out.complete = false;
+        return true;
+    }
+
+    public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+        out.complete = false;
+    }
+
+    public boolean hit(Rectangle rect, Shape s, boolean onStroke) {
+        return g.hit(rect, s, onStroke);
+    }
+
+    public GraphicsConfiguration getDeviceConfiguration() {
+        return g.getDeviceConfiguration();
+    }
+
+    public Graphics create() {
+        return new DisplayListRecorder(this);
+    }
+
+    public Color getColor() {
+        return color;
+    }
+
+    public void setColor(Color c) {
+        if (c != null) {
+            color = c;
+        }
+    }
+
+    public Paint getPaint() {
+        return color;
+    }
+
+    public void setPaint(Paint paint) {
+        if (paint instanceof Color) {
+            setColor((Color) paint);
+        } else if (paint != null) {
+            out.complete = false;
+        }
+    }
+
+    public void setPaintMode() {
+    }
+
+    public void setXORMode(Color c) {
+        out.complete = false;
+    }
+
+    public Composite getComposite() {
+        return g.getComposite();
+    }
+
+    public void setComposite(Composite comp) {
+        g.setComposite(comp);
+    }
+
+    public Stroke getStroke() {
+        return g.getStroke();
+    }
+
+    public void setStroke(Stroke s) {
+        g.setStroke(s);
+    }
+
+    public Font getFont() {
+        return g.getFont();
+    }
+
+    public void setFont(Font font) {
+        g.setFont(font);
+    }
+
+    public FontMetrics getFontMetrics(Font f) {
+        return g.getFontMetrics(f);
+    }
+
+    public FontRenderContext getFontRenderContext() {
+        return g.getFontRenderContext();
+    }
+
+    public Color getBackground() {
+        return g.getBackground();
+    }
+
+    public void setBackground(Color color) {
+        g.setBackground(color);
+    }
+
+    public Object getRenderingHint(RenderingHints.Key hintKey) {
+        return g.getRenderingHint(hintKey);
+    }
+
+    public void setRenderingHint(RenderingHints.Key hintKey, Object hintValue) {
+        g.setRenderingHint(hintKey, hintValue);
+    }
+
+    public RenderingHints getRenderingHints() {
+        return g.getRenderingHints();
+    }
+
+    public void setRenderingHints(Map<?, ?> hints) {
+        g.setRenderingHints(hints);
+    }
+
+    public void addRenderingHints(Map<?, ?> hints) {
+        g.addRenderingHints(hints);
+    }
+
+    public void translate(int x, int y) {
+        g.translate(x, y);
+    }
+
+    public void translate(double tx, double ty) {
+        g.translate(tx, ty);
+    }
+
+    public void rotate(double theta) {
+        g.rotate(theta);
+    }
+
+    public void rotate(double theta, double x, double y) {
+        g.rotate(theta, x, y);
+    }
+
+    public void scale(double sx, double sy) {
+        g.scale(sx, sy);
+    }
+
+    public void shear(double shx, double shy) {
+        g.shear(shx, shy);
+    }
+
+    public void transform(AffineTransform tx) {
+        g.transform(tx);
+    }
+
+    public AffineTransform getTransform() {
+        return g.getTransform();
+    }
+
+    public void setTransform(AffineTransform tx) {
+        g.setTransform(tx);
+    }
+
+    public void clip(Shape s) {
+        g.clip(s);
+    }
+
+    public Shape getClip() {
+        return g.getClip();
+    }
+
+    public Rectangle getClipBounds() {
+        return g.getClipBounds();
+    }
+
+    public void clipRect(int x, int y, int width, int height) {
+        g.clipRect(x, y, width, height);
+    }
+
+    public void setClip(int x, int y, int width, int height) {
+        g.setClip(x, y, width, height);
+    }
+
+    public void setClip(Shape clip) {
+        g.setClip(clip);
+    }
+
+    public void dispose() {
+        g.dispose();
+    }
+
+    /**
+     * The state shared by a recorder and the graphics created from it.
+     */
+    private static class Output {
+
+        // the scratch graphics only keeps the state, nothing is painted in it
+        final BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        final DataOutputStream data = new DataOutputStream(bytes);
+        final Map<Font, Integer> fontIds = new IdentityHashMap<Font, Integer>();
+        final Map<Integer, Integer> fontIndex = new HashMap<Integer, Integer>();
+        final List<Integer> fonts = new ArrayList<Integer>();
+        final List<Float> fontSizes = new ArrayList<Float>();
+        Color lastColor;
+        boolean complete = true;
+    }
+}
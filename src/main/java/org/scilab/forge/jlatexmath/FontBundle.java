@@ -0,0 +1,555 @@
+/* FontBundle.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The precompiled form of the XML resources read at startup: the font descriptions
+ * and the mappings of DefaultTeXFont.xml, TeXSymbols.xml, TeXFormulaSettings.xml
+ * and GlueSettings.xml.
+ * <p>
+ * The bundle is generated at build time by the main method of this class and is read
+ * with bulk reads (or a memory map when the classes are not in a jar). When it is
+ * missing, or when the system property <code>jlatexmath.fontbundle</code> is set to
+ * <code>false</code>, the XML files are parsed as before.
+ * <p>
+ * Usage:
+ * <pre>
+ * java org.scilab.forge.jlatexmath.FontBundle &lt;output file&gt;
+ * java org.scilab.forge.jlatexmath.FontBundle -benchmark [runs]
+ * </pre>
+ * The benchmark starts new JVMs to measure the time of the first rendering with and
+ * without the bundle.
+ */
+public final class FontBundle {
+
+    public static final String RESOURCE_NAME = "DefaultTeXFont.bundle";
+
+    public static final String PROPERTY = "jlatexmath.fontbundle";
+
+    /**
+     * Magic number of the bundle ("JLMF").
+     */
+    public static final int MAGIC = 0x4A4C4D46;
+
+    /**
+     * Current version of the bundle.
+     */
+    public static final short VERSION = 1;
+
+    private static final int FONTS = 0;
+    private static final int PARAMETERS = 1;
+    private static final int TEXT_STYLE_MAPPINGS = 2;
+    private static final int DEFAULT_TEXT_STYLE_MAPPINGS = 3;
+    private static final int SYMBOL_MAPPINGS = 4;
+    private static final int GENERAL_SETTINGS = 5;
+    private static final int SYMBOLS = 6;
+    private static final int CHARACTER_TO_SYMBOL = 7;
+    private static final int CHARACTER_TO_FORMULA = 8;
+    private static final int GLUE = 9;
+    private static final int SECTIONS = 10;
+
+    private static FontBundle instance;
+    private static boolean loaded;
+
+    private final ByteBuffer[] sections;
+
+    private FontBundle(ByteBuffer[] sections) {
+        this.sections = sections;
+    }
+
+    /**
+     * @return the bundle of the library or null if the XML files must be parsed
+     */
+    static synchronized FontBundle getInstance() {
+        if (!loaded) {
+            loaded = true;
+            if (!"false".equals(System.getProperty(PROPERTY))) {
+                try {
+                    instance = load();
+                } catch (Exception e) {
+                    System.err.println("Warning: Jlatexmath: cannot read " + RESOURCE_NAME + ", the XML files are used: " + e.getMessage());
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    private static FontBundle load() throws Exception {
+        URL url = FontBundle.class.getResource(RESOURCE_NAME);
+        if (url == null) {
+            return null;
+        }
+
+        if ("file".equals(url.getProtocol())) {
+            RandomAccessFile raf = new RandomAccessFile(new File(url.toURI()), "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } finally {
+                raf.close();
+            }
+        }
+
+        InputStream in = url.openStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(256 * 1024);
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            return read(ByteBuffer.wrap(out.toByteArray()));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static FontBundle read(ByteBuffer buf) throws IOException {
+        try {
+            if (buf.getInt() != MAGIC) {
+                throw new IOException("Not a font bundle");
+            }
+            short version = buf.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported font bundle version " + version);
+            }
+            ByteBuffer[] sections = new ByteBuffer[SECTIONS];
+            for (int i = 0; i < SECTIONS; i++) {
+                int length = buf.getInt();
+                if (length < 0 || length > buf.remaining()) {
+                    throw new IOException("Truncated font bundle");
+                }
+                ByteBuffer section = buf.slice();
+                section.limit(length);
+                sections[i] = section;
+                buf.position(buf.position() + length);
+            }
+            if (buf.hasRemaining()) {
+                throw new IOException("Invalid font bundle");
+            }
+
+            return new FontBundle(sections);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated font bundle");
+        }
+    }
+
+    private ByteBuffer section(int i) {
+        return sections[i].duplicate();
+    }
+
+    FontInfo[] readFontInfos() throws ResourceParseException {
+        ByteBuffer buf = section(FONTS);
+        FontInfo[] infos = new FontInfo[buf.getShort()];
+        for (int i = 0; i < infos.length; i++) {
+            String fontId = readString(buf);
+            if (DefaultTeXFontParser.Font_ID.indexOf(fontId) >= 0) {
+                throw new FontAlreadyLoadedException("Font " + fontId + " is already loaded !");
+            }
+            DefaultTeXFontParser.Font_ID.add(fontId);
+            infos[i] = FontInfo.read(DefaultTeXFontParser.Font_ID.size() - 1, buf);
+        }
+        for (int i = 0; i < infos.length; i++) {
+            DefaultTeXFontParser.setVersionIds(infos[i]);
+        }
+
+        return infos;
+    }
+
+    Map<String, Float> readParameters() {
+        ByteBuffer buf = section(PARAMETERS);
+        int n = buf.getInt();
+        Map<String, Float> res = new HashMap<String, Float>();
+        for (int i = 0; i < n; i++) {
+            String name = readString(buf);
+            res.put(name, buf.getFloat());
+        }
+
+        return res;
+    }
+
+    Map<String, CharFont[]> readTextStyleMappings() {
+        ByteBuffer buf = section(TEXT_STYLE_MAPPINGS);
+        int n = buf.getInt();
+        Map<String, CharFont[]> res = new HashMap<String, CharFont[]>();
+        for (int i = 0; i < n; i++) {
+            String name = readString(buf);
+            CharFont[] charFonts = new CharFont[4];
+            for (int j = 0; j < charFonts.length; j++) {
+                if (buf.get() != 0) {
+                    charFonts[j] = readCharFont(buf);
+                }
+            }
+            res.put(name, charFonts);
+        }
+
+        return res;
+    }
+
+    String[] readDefaultTextStyleMappings() {
+        ByteBuffer buf = section(DEFAULT_TEXT_STYLE_MAPPINGS);
+        String[] res = new String[4];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = readString(buf);
+        }
+
+        return res;
+    }
+
+    Map<String, CharFont> readSymbolMappings() {
+        ByteBuffer buf = section(SYMBOL_MAPPINGS);
+        int n = buf.getInt();
+        Map<String, CharFont> res = new HashMap<String, CharFont>(2 * n);
+        for (int i = 0; i < n; i++) {
+            String name = readString(buf);
+            res.put(name, readCharFont(buf));
+        }
+
+        return res;
+    }
+
+    Map<String, Number> readGeneralSettings() {
+        ByteBuffer buf = section(GENERAL_SETTINGS);
+        int n = buf.getInt();
+        Map<String, Number> res = new HashMap<String, Number>();
+        for (int i = 0; i < n; i++) {
+            String name = readString(buf);
+            if (buf.get() == 'I') {
+                res.put(name, buf.getInt());
+            } else {
+                res.put(name, buf.getFloat());
+            }
+        }
+
+        return res;
+    }
+
+    Map<String, SymbolAtom> readSymbols() {
+        ByteBuffer buf = section(SYMBOLS);
+        int n = buf.getInt();
+        Map<String, SymbolAtom> res = new HashMap<String, SymbolAtom>(2 * n);
+        for (int i = 0; i < n; i++) {
+            String name = readString(buf);
+            int type = buf.get();
+            res.put(name, new SymbolAtom(name, type, buf.get() != 0));
+        }
+
+        return res;
+    }
+
+    void readCharacterToSymbolMappings(CharTable mappings, CharTable textMappings) {
+        ByteBuffer buf = section(CHARACTER_TO_SYMBOL);
+        readTable(buf, mappings);
+        readTable(buf, textMappings);
+    }
+
+    void readCharacterToFormulaMappings(CharTable mappings, CharTable textMappings) {
+        ByteBuffer buf = section(CHARACTER_TO_FORMULA);
+        readTable(buf, mappings);
+        readTable(buf, textMappings);
+    }
+
+    Glue[] readGlueTypes() {
+        ByteBuffer buf = section(GLUE);
+        Glue[] res = new Glue[buf.getInt()];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = Glue.read(buf);
+        }
+
+        return res;
+    }
+
+    int[][][] readGlueTable() {
+        ByteBuffer buf = section(GLUE);
+        int n = buf.getInt();
+        for (int i = 0; i < n; i++) {
+            Glue.read(buf);
+        }
+        int[][][] table = new int[buf.getInt()][buf.getInt()][buf.getInt()];
+        for (int i = 0; i < table.length; i++) {
+            for (int j = 0; j < table[i].length; j++) {
+                for (int k = 0; k < table[i][j].length; k++) {
+                    table[i][j][k] = buf.get();
+                }
+            }
+        }
+
+        return table;
+    }
+
+    private static CharFont readCharFont(ByteBuffer buf) {
+        char c = buf.getChar();
+        int fontId = buf.getInt();
+        return new CharFont(c, fontId, buf.getInt());
+    }
+
+    private static void readTable(ByteBuffer buf, CharTable table) {
+        int n = buf.getInt();
+        for (int i = 0; i < n; i++) {
+            char c = buf.getChar();
+            table.put(c, readString(buf));
+        }
+    }
+
+    static String readString(ByteBuffer buf) {
+        int length = buf.getShort();
+        if (length < 0) {
+            return null;
+        }
+
+        return new String(readChars(buf, length));
+    }
+
+    static char[] readChars(ByteBuffer buf, int n) {
+        char[] res = new char[n];
+        buf.asCharBuffer().get(res);
+        buf.position(buf.position() + 2 * n);
+
+        return res;
+    }
+
+    static float[] readFloats(ByteBuffer buf, int n) {
+        float[] res = new float[n];
+        buf.asFloatBuffer().get(res);
+        buf.position(buf.position() + 4 * n);
+
+        return res;
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeShort(-1);
+        } else {
+            out.writeShort(s.length());
+            out.writeChars(s);
+        }
+    }
+
+    private static void writeCharFont(DataOutputStream out, CharFont cf) throws IOException {
+        out.writeChar(cf.c);
+        out.writeInt(cf.fontId);
+        out.writeInt(cf.boldFontId);
+    }
+
+    private static void writeTable(DataOutputStream out, CharTable table) throws IOException {
+        char[] chars = table.getChars();
+        out.writeInt(chars.length);
+        for (char c : chars) {
+            out.writeChar(c);
+            writeString(out, table.get(c));
+        }
+    }
+
+    /**
+     * Parse the XML files and write the bundle.
+     *
+     * @param out the stream where to write
+     * @throws IOException if an I/O error occurs
+     */
+    public static void write(OutputStream out) throws IOException {
+        ByteArrayOutputStream[] sections = new ByteArrayOutputStream[SECTIONS];
+        DataOutputStream[] outs = new DataOutputStream[SECTIONS];
+        for (int i = 0; i < SECTIONS; i++) {
+            sections[i] = new ByteArrayOutputStream();
+            outs[i] = new DataOutputStream(sections[i]);
+        }
+
+        DefaultTeXFontParser parser = new DefaultTeXFontParser();
+        FontInfo[] infos = parser.parseFontDescriptions(new FontInfo[0]);
+        outs[FONTS].writeShort(infos.length);
+        for (int i = 0; i < infos.length; i++) {
+            writeString(outs[FONTS], DefaultTeXFontParser.Font_ID.get(infos[i].getId()));
+            infos[i].write(outs[FONTS]);
+        }
+
+        Map<String, Float> parameters = parser.parseParameters();
+        outs[PARAMETERS].writeInt(parameters.size());
+        for (Map.Entry<String, Float> e : parameters.entrySet()) {
+            writeString(outs[PARAMETERS], e.getKey());
+            outs[PARAMETERS].writeFloat(e.getValue());
+        }
+
+        Map<String, CharFont[]> textStyles = parser.parseTextStyleMappings();
+        outs[TEXT_STYLE_MAPPINGS].writeInt(textStyles.size());
+        for (Map.Entry<String, CharFont[]> e : textStyles.entrySet()) {
+            writeString(outs[TEXT_STYLE_MAPPINGS], e.getKey());
+            for (CharFont cf : e.getValue()) {
+                outs[TEXT_STYLE_MAPPINGS].writeByte(cf == null ? 0 : 1);
+                if (cf != null) {
+                    writeCharFont(outs[TEXT_STYLE_MAPPINGS], cf);
+                }
+            }
+        }
+
+        for (String s : parser.parseDefaultTextStyleMappings()) {
+            writeString(outs[DEFAULT_TEXT_STYLE_MAPPINGS], s);
+        }
+
+        Map<String, CharFont> symbolMappings = parser.parseSymbolMappings();
+        outs[SYMBOL_MAPPINGS].writeInt(symbolMappings.size());
+        for (Map.Entry<String, CharFont> e : symbolMappings.entrySet()) {
+            writeString(outs[SYMBOL_MAPPINGS], e.getKey());
+            writeCharFont(outs[SYMBOL_MAPPINGS], e.getValue());
+        }
+
+        Map<String, Number> settings = parser.parseGeneralSettings();
+        outs[GENERAL_SETTINGS].writeInt(settings.size());
+        for (Map.Entry<String, Number> e : settings.entrySet()) {
+            writeString(outs[GENERAL_SETTINGS], e.getKey());
+            if (e.getValue() instanceof Integer) {
+                outs[GENERAL_SETTINGS].writeByte('I');
+                outs[GENERAL_SETTINGS].writeInt(e.getValue().intValue());
+            } else {
+                outs[GENERAL_SETTINGS].writeByte('F');
+                outs[GENERAL_SETTINGS].writeFloat(e.getValue().floatValue());
+            }
+        }
+
+        Map<String, SymbolAtom> symbols = new TeXSymbolParser().readSymbols();
+        outs[SYMBOLS].writeInt(symbols.size());
+        for (SymbolAtom sym : symbols.values()) {
+            writeString(outs[SYMBOLS], sym.getName());
+            outs[SYMBOLS].writeByte(sym.type);
+            outs[SYMBOLS].writeByte(sym.isDelimiter() ? 1 : 0);
+        }
+
+        TeXFormulaSettingsParser settingsParser = new TeXFormulaSettingsParser();
+        CharTable mappings = new CharTable();
+        CharTable textMappings = new CharTable();
+        settingsParser.parseSymbolMappings(mappings, textMappings);
+        writeTable(outs[CHARACTER_TO_SYMBOL], mappings);
+        writeTable(outs[CHARACTER_TO_SYMBOL], textMappings);
+        mappings = new CharTable();
+        textMappings = new CharTable();
+        settingsParser.parseSymbolToFormulaMappings(mappings, textMappings);
+        writeTable(outs[CHARACTER_TO_FORMULA], mappings);
+        writeTable(outs[CHARACTER_TO_FORMULA], textMappings);
+
+        GlueSettingsParser glueParser = new GlueSettingsParser();
+        Glue[] glueTypes = glueParser.getGlueTypes();
+        outs[GLUE].writeInt(glueTypes.length);
+        for (Glue glue : glueTypes) {
+            glue.write(outs[GLUE]);
+        }
+        int[][][] table = glueParser.createGlueTable();
+        outs[GLUE].writeInt(table.length);
+        outs[GLUE].writeInt(table[0].length);
+        outs[GLUE].writeInt(table[0][0].length);
+        for (int i = 0; i < table.length; i++) {
+            for (int j = 0; j < table[i].length; j++) {
+                for (int k = 0; k < table[i][j].length; k++) {
+                    outs[GLUE].writeByte(table[i][j][k]);
+                }
+            }
+        }
+
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(MAGIC);
+        dos.writeShort(VERSION);
+        for (int i = 0; i < SECTIONS; i++) {
+            outs[i].flush();
+            dos.writeInt(sections[i].size());
+            sections[i].writeTo(dos);
+        }
+        dos.flush();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: FontBundle <output file> | -benchmark [runs] | -time");
+            System.exit(1);
+        }
+
+        if (args[0].equals("-time")) {
+            long start = System.nanoTime();
+            new TeXFormula("x^2").createTeXIcon(TeXConstants.STYLE_DISPLAY, 20);
+            System.out.println((System.nanoTime() - start) / 1000000.0);
+        } else if (args[0].equals("-benchmark")) {
+            int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+            System.out.println("bundle: " + benchmark(true, runs) + " ms");
+            System.out.println("xml:    " + benchmark(false, runs) + " ms");
+        } else {
+            // the bundle must be generated from the XML files
+            System.setProperty(PROPERTY, "false");
+            File file = new File(args[0]);
+            file.getAbsoluteFile().getParentFile().mkdirs();
+            OutputStream out = new FileOutputStream(file);
+            try {
+                write(out);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * @return the median time of the first rendering in a new JVM
+     */
+    private static double benchmark(boolean bundle, int runs) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Double> times = new ArrayList<Double>();
+        for (int i = 0; i < runs; i++) {
+            Process p = new ProcessBuilder(java, "-Djava.awt.headless=true", "-D" + PROPERTY + "=" + bundle,
+                                           "-cp", System.getProperty("java.class.path"), FontBundle.class.getName(), "-time")
+                .redirectErrorStream(true).start();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
+            String line, last = null;
+            while ((line = reader.readLine()) != null) {
+                last = line;
+            }
+            reader.close();
+            if (p.waitFor() != 0 || last == null) {
+                throw new IOException("The benchmark failed: " + last);
+            }
+            times.add(Double.valueOf(last));
+        }
+        Collections.sort(times);
+
+        return times.get(times.size() / 2);
+    }
+}
@@ -0,0 +1,332 @@
+/* FontCache.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+import java.awt.Font;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * The TrueType fonts used by the FontInfos. Font.createFont(int, InputStream) copies
+ * the stream in a new temporary file each time it is called, so the fonts are
+ * extracted once in a cache directory and created from these files. The name of
+ * an extracted file contains the checksum of the font, so a new version of a font
+ * never reuses an old file, and an extracted file is only used if its content is
+ * the font (else it is written again).
+ * <p>
+ * The directory is given by the system property <code>jlatexmath.fontcache</code>
+ * (default: <code>.jlatexmath/fonts</code> in the home directory of the user, which
+ * is only readable by the user when it is created), the value <code>false</code>
+ * disables the extraction.
+ * <p>
+ * A font is created once and shared by all the FontInfos using the same file. When
+ * the first font is created, the other fonts of the library are created in the
+ * background, by threads which stop once they are idle.
+ */
+public final class FontCache {
+
+    public static final String PROPERTY = "jlatexmath.fontcache";
+
+    private static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+    // time after which an idle loader thread stops, in seconds
+    private static final long KEEP_ALIVE = 5;
+
+    private static final Map<String, FutureTask<Font>> fonts = new HashMap<String, FutureTask<Font>>();
+    private static ThreadPoolExecutor executor;
+    private static boolean preloaded;
+
+    private FontCache() { }
+
+    /**
+     * Get the font in the resource path relatively to the class of base.
+     * @param base an object or null for the fonts of the library
+     * @param path the path of the font
+     * @return the font scaled to TeXFormula.PIXELS_PER_POINT
+     */
+    static Font getFont(Object base, String path) throws ResourceParseException {
+        FutureTask<Font> task;
+        synchronized (fonts) {
+            String key = getKey(base, path);
+            task = fonts.get(key);
+            if (task == null) {
+                task = createTask(base, path);
+                fonts.put(key, task);
+            }
+        }
+        // if the font is not already created or being created by a background thread,
+        // it is created in this thread
+        task.run();
+        if (base == null) {
+            preloadFonts();
+        }
+
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            synchronized (fonts) {
+                // the next call will try again
+                fonts.remove(getKey(base, path));
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof ResourceParseException) {
+                throw (ResourceParseException) cause;
+            }
+            throw new ResourceParseException("Cannot create the font " + path, cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceParseException("Interrupted while creating the font " + path, e);
+        }
+    }
+
+    /**
+     * Create in the background the fonts of the library which are not already created.
+     */
+    private static void preloadFonts() {
+        List<String> paths;
+        synchronized (fonts) {
+            if (preloaded) {
+                return;
+            }
+            preloaded = true;
+            paths = FontInfo.getFontPaths();
+        }
+
+        for (String path : paths) {
+            synchronized (fonts) {
+                String key = getKey(null, path);
+                if (!fonts.containsKey(key)) {
+                    FutureTask<Font> task = createTask(null, path);
+                    fonts.put(key, task);
+                    getExecutor().execute(task);
+                }
+            }
+        }
+    }
+
+    private static String getKey(Object base, String path) {
+        String name = base == null ? path : base.getClass().getName() + ":" + path;
+        // the fonts are scaled when they are created
+        return name + "@" + TeXFormula.PIXELS_PER_POINT;
+    }
+
+    private static FutureTask<Font> createTask(final Object base, final String path) {
+        return new FutureTask<Font>(new Callable<Font>() {
+                public Font call() throws ResourceParseException {
+                    return createFont(base, path);
+                }
+            });
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(THREADS, THREADS, KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "jlatexmath-font-loader");
+                        t.setDaemon(true);
+                        t.setPriority(Thread.MIN_PRIORITY);
+                        return t;
+                    }
+                });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Stop the threads creating the fonts in the background, for example when the
+     * library is unloaded. The fonts which are not created yet will be created by
+     * the threads which need them.
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            // the fonts being created are finished, the other ones are left to the callers
+            executor.getQueue().clear();
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private static Font createFont(Object base, String path) throws ResourceParseException {
+        Class<?> clazz = base == null ? DefaultTeXFontParser.class : base.getClass();
+        InputStream in = clazz.getResourceAsStream(path);
+        if (in == null) {
+            throw new XMLResourceParseException(DefaultTeXFontParser.RESOURCE_NAME + ": the font '" + path + "' cannot be found");
+        }
+
+        byte[] data;
+        try {
+            data = readFully(in);
+        } catch (IOException e) {
+            throw new XMLResourceParseException(DefaultTeXFontParser.RESOURCE_NAME
+                                                + ": error reading font '" + path + "'. Error message: "
+                                                + e.getMessage());
+        }
+
+        File file = extract(path, data);
+        if (file != null) {
+            return DefaultTeXFontParser.createFont(file, path);
+        }
+
+        return DefaultTeXFontParser.createFont(new ByteArrayInputStream(data), path);
+    }
+
+    /**
+     * @return the file containing the font or null if it cannot be written in the cache
+     */
+    static File extract(String path, byte[] data) {
+        String dir = System.getProperty(PROPERTY);
+        if ("false".equals(dir)) {
+            return null;
+        }
+        String home = System.getProperty("user.home");
+        if (dir == null && home == null) {
+            return null;
+        }
+        File cache = dir != null ? new File(dir) : new File(home, ".jlatexmath" + File.separator + "fonts");
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        if (dot != -1) {
+            name = name.substring(0, dot);
+        }
+        File file = new File(cache, name + "-" + Long.toHexString(crc.getValue()) + ".ttf");
+        if (hasContent(file, data)) {
+            return file;
+        }
+
+        // the file is written under another name and renamed, so other processes never see a partial file
+        File tmp = null;
+        try {
+            if (!cache.isDirectory()) {
+                if (!cache.mkdirs() && !cache.isDirectory()) {
+                    return null;
+                }
+                if (dir == null) {
+                    setPrivate(cache);
+                }
+            }
+            tmp = File.createTempFile(name, ".tmp", cache);
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            // a corrupt file is replaced (renameTo doesn't replace a file on all the platforms)
+            if (tmp.renameTo(file) || hasContent(file, data) || (file.delete() && tmp.renameTo(file))) {
+                return file;
+            }
+        } catch (IOException e) {
+        } catch (SecurityException e) {
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return true if the file contains the data
+     */
+    private static boolean hasContent(File file, byte[] data) {
+        if (!file.isFile() || file.length() != data.length) {
+            return false;
+        }
+
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                byte[] buf = new byte[8192];
+                int off = 0, n;
+                while ((n = in.read(buf)) != -1) {
+                    if (off + n > data.length) {
+                        return false;
+                    }
+                    for (int i = 0; i < n; i++) {
+                        if (buf[i] != data[off + i]) {
+                            return false;
+                        }
+                    }
+                    off += n;
+                }
+                return off == data.length;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        } catch (SecurityException e) {
+            return false;
+        }
+    }
+
+    // only the owner can read the directory and write in it
+    private static void setPrivate(File dir) {
+        dir.setReadable(false, false);
+        dir.setWritable(false, false);
+        dir.setExecutable(false, false);
+        dir.setReadable(true, true);
+        dir.setWritable(true, true);
+        dir.setExecutable(true, true);
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -30,8 +30,14 @@
 package org.scilab.forge.jlatexmath;
 
 import java.awt.Font;
-import java.util.HashMap;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Contains all the font information for 1 font.
@@ -43,42 +49,31 @@ public class FontInfo {
      */
     public static final int NUMBER_OF_CHAR_CODES = 256;
 
-    private static Map<Integer, FontInfo> fonts = new HashMap<Integer, FontInfo>();
-    
-    private class CharCouple {
-        
-        private final char left, right;
-        
-        CharCouple(char l, char r) {
-            left = l;
-            right = r;
-        }
-        
-        public boolean equals(Object o) {
-            CharCouple lig = (CharCouple) o;
-            return left == lig.left && right == lig.right;
-        }
-        
-        public int hashCode() {
-            return (left + right) % 128;
-        }
-    }
+    private static Map<Integer, FontInfo> fonts = new ConcurrentHashMap<Integer, FontInfo>();
     
     // ID
     private final int fontId;
     
     // font
-    private Font font;
+    private volatile Font font;
     private final Object base;
     private final String path;
     private final String fontName;
 
-    private final Map<CharCouple,Character> lig = new HashMap<CharCouple,Character> ();
-    private final Map<CharCouple,Float> kern = new HashMap<CharCouple,Float>();
-    private float[][] metrics;
+    private final CharCoupleTable lig = new CharCoupleTable();
+    private final CharCoupleTable kern = new CharCoupleTable();
+    private final int unicode;
+
+    // the characters of the font are indexed in the order of their definition:
+    // index[c >>> 8][c & 0xFF] is the index + 1 of c (0 if it is undefined)
+    private final char[][] index = new char[256][];
+    private char[] codes;
+    private int count;
+
+    // width, height, depth and italic correction of each index
+    private float[] metrics;
     private CharFont[] nextLarger;
     private int[][] extensions;
-    private HashMap<Character, Character> unicode = null;
     
     // skew character of the font (used for positioning accents)
     private char skewChar = (char) -1;
@@ -92,6 +87,8 @@ public class FontInfo {
     private int ssId;
     private int ttId;
     private int itId;
+    // ids of the font after the roman, ss, tt and it remappings
+    private int[] styleIds;
     protected final String boldVersion;
     protected final String romanVersion;
     protected final String ssVersion;
@@ -111,12 +108,10 @@ public class FontInfo {
 	this.ssVersion = ssVersion;
 	this.ttVersion = ttVersion;
 	this.itVersion = itVersion;
-	int num = NUMBER_OF_CHAR_CODES;
-	if (unicode != 0) {
-	    this.unicode = new HashMap<Character, Character>(unicode);
-	    num = unicode;
-	}
-	metrics = new float[num][];
+	this.unicode = unicode;
+	int num = unicode != 0 ? unicode : NUMBER_OF_CHAR_CODES;
+	codes = new char[num];
+	metrics = new float[4 * num];
 	nextLarger = new CharFont[num];
 	extensions = new int[num][];
 	fonts.put(fontId, this);
@@ -132,7 +127,7 @@ public class FontInfo {
      *           kern value
      */
     public void addKern(char left, char right, float k) {
-        kern.put(new CharCouple(left, right), new Float(k));
+        kern.put(left, right, Float.floatToIntBits(k));
     }
     
     /**
@@ -144,41 +139,95 @@ public class FontInfo {
      *           ligature to replace left and right character
      */
     public void addLigature(char left, char right, char ligChar) {
-        lig.put(new CharCouple(left, right), new Character(ligChar));
+        lig.put(left, right, ligChar);
     }
     
+    /**
+     * @return the index of the character or -1 if it is not defined in this font
+     */
+    private int getIndex(char c) {
+	char[] page = index[c >>> 8];
+	return page == null ? -1 : page[c & 0xFF] - 1;
+    }
+
+    /**
+     * @return the index of the character, a new one is created if needed
+     */
+    private int createIndex(char c) {
+	char[] page = index[c >>> 8];
+	if (page == null) {
+	    page = index[c >>> 8] = new char[256];
+	}
+	int i = page[c & 0xFF] - 1;
+	if (i == -1) {
+	    i = count++;
+	    if (i == codes.length) {
+		int num = 2 * codes.length;
+		codes = Arrays.copyOf(codes, num);
+		metrics = Arrays.copyOf(metrics, 4 * num);
+		nextLarger = Arrays.copyOf(nextLarger, num);
+		extensions = Arrays.copyOf(extensions, num);
+	    }
+	    codes[i] = c;
+	    page[c & 0xFF] = (char) (i + 1);
+	}
+	return i;
+    }
+
     public int[] getExtension(char ch) {
-        if (unicode == null) 
-	    return extensions[ch];
-	return extensions[unicode.get(ch)];
+	int i = getIndex(ch);
+	return i == -1 ? null : extensions[i];
     }
     
     public float getKern(char left, char right, float factor) {
-        Object obj = kern.get(new CharCouple(left, right));
-        if (obj == null)
-            return 0;
-        else
-            return ((Float) obj).floatValue() * factor;
+        // the bits of 0f are 0
+        return Float.intBitsToFloat(kern.get(left, right, 0)) * factor;
     }
     
     public CharFont getLigature(char left, char right) {
-        Object obj = lig.get(new CharCouple(left, right));
-        if (obj == null)
+        int ligChar = lig.get(left, right, -1);
+        if (ligChar == -1)
             return null;
         else
-            return new CharFont(((Character) obj).charValue(), fontId);
+            return new CharFont((char) ligChar, fontId);
     }
     
+    /**
+     * The metrics are kept in a single table shared by all the characters, so
+     * unlike before, this method allocates a new array on each call.
+     *
+     * @return a copy of the width, height, depth and italic correction of the
+     * character or null if the character is not defined
+     * @deprecated the metrics are read from the shared table (see
+     * {@link #getMetricsOffset(char)} and {@link #getMetricsTable()}) without copying them
+     */
+    @Deprecated
     public float[] getMetrics(char c) {
-	if (unicode == null)
-	    return metrics[c];
-	return metrics[unicode.get(c)];
+	int i = getIndex(c);
+	if (i == -1)
+	    return null;
+	return Arrays.copyOfRange(metrics, 4 * i, 4 * i + 4);
+    }
+
+    /**
+     * @return the offset of the metrics of the character in {@link #getMetricsTable()}
+     * or -1 if the character is not defined
+     */
+    int getMetricsOffset(char c) {
+	int i = getIndex(c);
+	return i == -1 ? -1 : 4 * i;
+    }
+
+    /**
+     * @return the width, height, depth and italic correction of all the characters
+     */
+    float[] getMetricsTable() {
+	return metrics;
     }
     
     public CharFont getNextLarger(char ch) {
-        if (unicode == null)
-	    return nextLarger[ch];
-	return nextLarger[unicode.get(ch)];
+	int i = getIndex(ch);
+	return i == -1 ? null : nextLarger[i];
     }
     
     public float getQuad(float factor) {
@@ -206,36 +255,19 @@ public class FontInfo {
     }
     
     public void setExtension(char ch, int[] ext) {
-        if (unicode == null)
-	    extensions[ch] = ext;
-	else if (!unicode.containsKey(ch)) {
-	    char s = (char)unicode.size();
-	    unicode.put(ch, s);
-	    extensions[s] = ext;
-	} else 
-	    extensions[unicode.get(ch)] = ext;
+	extensions[createIndex(ch)] = ext;
     }
     
     public void setMetrics(char c, float[] arr) {
-        if (unicode == null)
-	    metrics[c] = arr;
-	else if (!unicode.containsKey(c)) {
-	    char s = (char)unicode.size();
-	    unicode.put(c, s);
-	    metrics[s] = arr;
-	} else
-	    metrics[unicode.get(c)] = arr;
+	int i = 4 * createIndex(c);
+	metrics[i] = arr[0];
+	metrics[i + 1] = arr[1];
+	metrics[i + 2] = arr[2];
+	metrics[i + 3] = arr[3];
     }
     
     public void setNextLarger(char ch, char larger, int fontLarger) {
-        if (unicode == null)
-	    nextLarger[ch] = new CharFont(larger, fontLarger);
-	else if (!unicode.containsKey(ch)) {
-	    char s = (char)unicode.size();
-	    unicode.put(ch, s);
-	    nextLarger[s] = new CharFont(larger, fontLarger);
-	} else
-	    nextLarger[unicode.get(ch)] = new CharFont(larger, fontLarger);
+	nextLarger[createIndex(ch)] = new CharFont(larger, fontLarger);
     }
     
     public void setSkewChar(char c) {
@@ -266,6 +298,18 @@ public class FontInfo {
         return ssId;
     }
 
+    /**
+     * @param mask a combination of DefaultTeXFont.ROMAN, SS, TT and IT
+     * @return the id of the font to use for this combination
+     */
+    int getStyleId(int mask) {
+	return styleIds[mask];
+    }
+
+    void setStyleIds(int[] ids) {
+	styleIds = ids;
+    }
+
     public void setSsId(int id) {
 	ssId = id == -1 ? fontId : id;
     }
@@ -286,19 +330,150 @@ public class FontInfo {
 	boldId = id == -1 ? fontId : id;
     }
 
+    /**
+     * Write the metrics of this font in the font bundle.
+     *
+     * @param out the stream where to write
+     * @throws IOException if an I/O error occurs
+     */
+    void write(DataOutputStream out) throws IOException {
+	FontBundle.writeString(out, path);
+	FontBundle.writeString(out, fontName);
+	out.writeInt(unicode);
+	out.writeFloat(xHeight);
+	out.writeFloat(space);
+	out.writeFloat(quad);
+	out.writeChar(skewChar);
+	FontBundle.writeString(out, boldVersion);
+	FontBundle.writeString(out, romanVersion);
+	FontBundle.writeString(out, ssVersion);
+	FontBundle.writeString(out, ttVersion);
+	FontBundle.writeString(out, itVersion);
+
+	// the characters are written in the order of their index, so the
+	// indices are the same when they are read back
+	out.writeInt(count);
+	for (int i = 0; i < count; i++) {
+	    out.writeChar(codes[i]);
+	}
+	for (int i = 0; i < 4 * count; i++) {
+	    out.writeFloat(metrics[i]);
+	}
+	for (int i = 0; i < count; i++) {
+	    out.writeByte((nextLarger[i] != null ? 1 : 0) | (extensions[i] != null ? 2 : 0));
+	    if (nextLarger[i] != null) {
+		out.writeChar(nextLarger[i].c);
+		out.writeInt(nextLarger[i].fontId);
+	    }
+	    if (extensions[i] != null) {
+		for (int j = 0; j < 4; j++) {
+		    out.writeInt(extensions[i][j]);
+		}
+	    }
+	}
+
+	int[] couples = kern.getCouples();
+	out.writeInt(couples.length);
+	for (int i = 0; i < couples.length; i++) {
+	    char left = (char) (couples[i] >>> 16), right = (char) couples[i];
+	    out.writeChar(left);
+	    out.writeChar(right);
+	    out.writeFloat(Float.intBitsToFloat(kern.get(left, right, 0)));
+	}
+	couples = lig.getCouples();
+	out.writeInt(couples.length);
+	for (int i = 0; i < couples.length; i++) {
+	    char left = (char) (couples[i] >>> 16), right = (char) couples[i];
+	    out.writeChar(left);
+	    out.writeChar(right);
+	    out.writeChar(lig.get(left, right, -1));
+	}
+    }
+
+    /**
+     * Read the metrics of a font written by {@link #write(DataOutputStream)}.
+     *
+     * @param fontId the id of the font
+     * @param buf the buffer to read
+     * @return the font information
+     */
+    static FontInfo read(int fontId, ByteBuffer buf) {
+	String path = FontBundle.readString(buf);
+	String fontName = FontBundle.readString(buf);
+	int unicode = buf.getInt();
+	float xHeight = buf.getFloat();
+	float space = buf.getFloat();
+	float quad = buf.getFloat();
+	char skewChar = buf.getChar();
+	FontInfo info = new FontInfo(fontId, null, path, fontName, unicode, xHeight, space, quad, FontBundle.readString(buf),
+				     FontBundle.readString(buf), FontBundle.readString(buf), FontBundle.readString(buf), FontBundle.readString(buf));
+	info.setSkewChar(skewChar);
+
+	int count = buf.getInt();
+	char[] codes = FontBundle.readChars(buf, count);
+	for (int i = 0; i < count; i++) {
+	    info.createIndex(codes[i]);
+	}
+	float[] values = FontBundle.readFloats(buf, 4 * count);
+	System.arraycopy(values, 0, info.metrics, 0, values.length);
+	for (int i = 0; i < count; i++) {
+	    byte flags = buf.get();
+	    if ((flags & 1) != 0) {
+		char c = buf.getChar();
+		info.nextLarger[i] = new CharFont(c, buf.getInt());
+	    }
+	    if ((flags & 2) != 0) {
+		info.extensions[i] = new int[] {buf.getInt(), buf.getInt(), buf.getInt(), buf.getInt()};
+	    }
+	}
+
+	count = buf.getInt();
+	for (int i = 0; i < count; i++) {
+	    info.addKern(buf.getChar(), buf.getChar(), buf.getFloat());
+	}
+	count = buf.getInt();
+	for (int i = 0; i < count; i++) {
+	    info.addLigature(buf.getChar(), buf.getChar(), buf.getChar());
+	}
+
+	return info;
+    }
+
     public Font getFont() {
 	if (font == null) {
-	    if (base == null) {
-		font = DefaultTeXFontParser.createFont(path);
-	    } else {
-		font = DefaultTeXFontParser.createFont(base.getClass().getResourceAsStream(path), fontName);
-	    }
+	    font = FontCache.getFont(base, path);
 	}
         return font;
     }
 
+    /**
+     * @return the paths of the fonts of the library
+     */
+    static List<String> getFontPaths() {
+	List<String> paths = new ArrayList<String>();
+	for (FontInfo info : fonts.values()) {
+	    if (info.base == null && !paths.contains(info.path)) {
+		paths.add(info.path);
+	    }
+	}
+	return paths;
+    }
+
     public static Font getFont(int id) {
 	return fonts.get(id).getFont();
     }
+
+    /**
+     * @param font a font
+     * @return the id of the loaded font or TeXFont.NO_FONT if it is not one of our fonts
+     */
+    public static int getFontId(Font font) {
+	for (FontInfo info : fonts.values()) {
+	    if (info.font == font) {
+		return info.fontId;
+	    }
+	}
+	return TeXFont.NO_FONT;
+    }
 }
 
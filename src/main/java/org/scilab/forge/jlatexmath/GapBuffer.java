@@ -0,0 +1,195 @@
+/* GapBuffer.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+/**
+ * The text parsed by a TeXParser: an unsynchronized char array with a gap at the
+ * last modified position. The parser replaces commands by their expansion while it
+ * goes forward in the text, so the gap only moves forward and the expansion of a
+ * whole formula is linear in its size.
+ * <p>
+ * The characters after the gap are kept at the end of the array, so an access out
+ * of the text fails as with a String.
+ */
+final class GapBuffer {
+
+    private char[] chars;
+    private int gapStart;
+    private int gapLength;
+    // the number of replacements since the text was set
+    private int edits;
+
+    GapBuffer(String s) {
+        chars = s.toCharArray();
+    }
+
+    /**
+     * Replace the text, in the same array if it is large enough.
+     */
+    void reset(String s) {
+        int n = s.length();
+        edits = 0;
+        if (n > chars.length) {
+            chars = s.toCharArray();
+            gapStart = n;
+            gapLength = 0;
+        } else {
+            s.getChars(0, n, chars, 0);
+            gapStart = n;
+            gapLength = chars.length - n;
+        }
+    }
+
+    /**
+     * @return the size of the array
+     */
+    int capacity() {
+        return chars.length;
+    }
+
+    /**
+     * @return true if the text has not been modified since it was set, so the
+     * positions are the ones of the original text
+     */
+    boolean isPristine() {
+        return edits == 0;
+    }
+
+    int length() {
+        return chars.length - gapLength;
+    }
+
+    char charAt(int i) {
+        return i < gapStart ? chars[i] : chars[i + gapLength];
+    }
+
+    /**
+     * @return the hash code of the characters between start and end, as computed by
+     * String.hashCode
+     */
+    int hashCode(int start, int end) {
+        int h = 0;
+        if (end <= gapStart || start >= gapStart) {
+            char[] c = chars;
+            int off = start >= gapStart ? gapLength : 0;
+            for (int i = start + off; i < end + off; i++) {
+                h = 31 * h + c[i];
+            }
+        } else {
+            for (int i = start; i < end; i++) {
+                h = 31 * h + charAt(i);
+            }
+        }
+
+        return h;
+    }
+
+    /**
+     * @return true if the characters from start are the ones of s
+     */
+    boolean regionMatches(int start, char[] s) {
+        int end = start + s.length;
+        if (end <= gapStart || start >= gapStart) {
+            char[] c = chars;
+            int off = start >= gapStart ? start + gapLength : start;
+            for (int i = 0; i < s.length; i++) {
+                if (c[off + i] != s[i]) {
+                    return false;
+                }
+            }
+        } else {
+            for (int i = 0; i < s.length; i++) {
+                if (charAt(start + i) != s[i]) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    String substring(int start, int end) {
+        if (start < 0 || start > end || end > length()) {
+            throw new StringIndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length());
+        }
+        if (end <= gapStart) {
+            return new String(chars, start, end - start);
+        }
+        if (start >= gapStart) {
+            return new String(chars, start + gapLength, end - start);
+        }
+
+        StringBuilder buf = new StringBuilder(end - start);
+        buf.append(chars, start, gapStart - start);
+        buf.append(chars, gapStart + gapLength, end - gapStart);
+
+        return buf.toString();
+    }
+
+    void delete(int start, int end) {
+        replace(start, end, "");
+    }
+
+    /**
+     * Replace the characters between start and end by the given string.
+     */
+    void replace(int start, int end, String s) {
+        if (start < 0 || start > end || end > length()) {
+            throw new StringIndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length());
+        }
+        moveGap(end);
+        edits++;
+        gapStart = start;
+        gapLength += end - start;
+
+        int n = s.length();
+        if (n > gapLength) {
+            int after = chars.length - gapStart - gapLength;
+            char[] c = new char[Math.max(2 * chars.length, chars.length - gapLength + n + 16)];
+            System.arraycopy(chars, 0, c, 0, gapStart);
+            System.arraycopy(chars, gapStart + gapLength, c, c.length - after, after);
+            gapLength = c.length - gapStart - after;
+            chars = c;
+        }
+        s.getChars(0, n, chars, gapStart);
+        gapStart += n;
+        gapLength -= n;
+    }
+
+    private void moveGap(int pos) {
+        if (pos > gapStart) {
+            System.arraycopy(chars, gapStart + gapLength, chars, gapStart, pos - gapStart);
+        } else if (pos < gapStart) {
+            System.arraycopy(chars, pos, chars, pos + gapLength, gapStart - pos);
+        }
+        gapStart = pos;
+    }
+
+    public String toString() {
+        return substring(0, length());
+    }
+}
@@ -29,6 +29,10 @@
 
 package org.scilab.forge.jlatexmath;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 /**
  * Represents glue by its 3 components. Contains the "glue rules".
  */
@@ -48,9 +52,15 @@ public class Glue {
     private static final int[][][] glueTable;
     
     static {
-        GlueSettingsParser parser = new GlueSettingsParser();
-        glueTypes = parser.getGlueTypes();
-        glueTable = parser.createGlueTable();
+        FontBundle bundle = FontBundle.getInstance();
+        if (bundle != null) {
+            glueTypes = bundle.readGlueTypes();
+            glueTable = bundle.readGlueTable();
+        } else {
+            GlueSettingsParser parser = new GlueSettingsParser();
+            glueTypes = parser.getGlueTypes();
+            glueTable = parser.createGlueTable();
+        }
     }
     
     public Glue(float space, float stretch, float shrink, String name) {
@@ -86,6 +96,24 @@ public class Glue {
         return glueTypes[glueType].createBox(env);
     }
     
+    /**
+     * Write this glue in the font bundle.
+     */
+    void write(DataOutputStream out) throws IOException {
+        FontBundle.writeString(out, name);
+        out.writeFloat(space);
+        out.writeFloat(stretch);
+        out.writeFloat(shrink);
+    }
+
+    /**
+     * Read a glue written by {@link #write(DataOutputStream)}.
+     */
+    static Glue read(ByteBuffer buf) {
+        String name = FontBundle.readString(buf);
+        return new Glue(buf.getFloat(), buf.getFloat(), buf.getFloat(), name);
+    }
+
     private Box createBox(TeXEnvironment env) {
         TeXFont tf = env.getTeXFont();
         // use "quad" from a font marked as an "mu font"
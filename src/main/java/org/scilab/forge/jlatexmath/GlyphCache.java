@@ -0,0 +1,336 @@
+/* GlyphCache.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A cache of rasterized glyphs. When a TeXIcon is painted with {@link #paint(TeXIcon, BufferedImage, int, int)},
+ * the characters are not drawn by Java2D: their coverage is rasterized once per font,
+ * character, pixel size and subpixel offset, and then composited directly into the
+ * pixels of the image.
+ * <p>
+ * Only the characters painted with a translation and a uniform scale are taken from
+ * the cache, the other ones (rotated, reflected, ...) are drawn as usual.
+ */
+public final class GlyphCache {
+
+    /**
+     * Number of subpixel positions in each direction when the fractional metrics are on
+     */
+    public static final int SUBPIXELS = 4;
+
+    /**
+     * Default maximal number of bytes used by the cached glyphs
+     */
+    public static final long DEFAULT_MAX_BYTES = 4L * 1024 * 1024;
+
+    // bigger glyphs are drawn by Java2D
+    private static final float MAX_SIZE = 1024f;
+
+    // the glyphs are spread over segments with their own lock and LRU order, so the
+    // threads painting at the same time rarely wait for each other
+    private static final int SEGMENTS = 16;
+
+    private static final FontRenderContext frc = new FontRenderContext(null, true, false);
+    private static final Segment[] segments = new Segment[SEGMENTS];
+    private static final ThreadLocal<Target> target = new ThreadLocal<Target>();
+
+    static {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(DEFAULT_MAX_BYTES / SEGMENTS);
+        }
+    }
+
+    private GlyphCache() { }
+
+    /**
+     * Set the maximal number of bytes used by the cached glyphs.
+     * @param maxBytes the max number of bytes
+     */
+    public static void setMaxCachedBytes(long maxBytes) {
+        for (Segment segment : segments) {
+            segment.setMaxBytes(Math.max(maxBytes / SEGMENTS, 1));
+        }
+    }
+
+    /**
+     * @return the number of bytes used by the cached glyphs
+     */
+    public static long getCachedBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.getBytes();
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Clear the cache
+     */
+    public static void clearCache() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Paint an icon in an image, the glyphs are taken from the cache when it is possible.
+     * The glyphs can only be composited into images of type TYPE_INT_ARGB, for the other
+     * types the icon is painted as usual.
+     *
+     * @param icon the icon to paint
+     * @param image the image where to paint
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     */
+    public static void paint(TeXIcon icon, BufferedImage image, int x, int y) {
+        Graphics2D g2 = image.createGraphics();
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            target.set(new Target(g2, image));
+        }
+        try {
+            icon.paintIcon(null, g2, x, y);
+        } finally {
+            target.remove();
+            g2.dispose();
+        }
+    }
+
+    /**
+     * Composite a character in the pixels of the image painted by {@link #paint(TeXIcon, BufferedImage, int, int)}.
+     *
+     * @param g2 the graphics where the character is drawn
+     * @param fontId the id of the font
+     * @param c the character
+     * @param x the x-coordinate of the origin of the character
+     * @param y the y-coordinate of the origin of the character
+     * @param size the scale of the character
+     * @return false if the character has not been drawn and must be drawn by Java2D
+     */
+    static boolean drawGlyph(Graphics2D g2, int fontId, char c, float x, float y, float size) {
+        Target t = target.get();
+        if (t == null || t.g2 != g2 || g2.getClip() != null || !(g2.getPaint() instanceof Color)
+            || g2.getComposite() != AlphaComposite.SrcOver) {
+            return false;
+        }
+
+        AffineTransform at = g2.getTransform();
+        if ((at.getType() & ~(AffineTransform.TYPE_TRANSLATION | AffineTransform.TYPE_UNIFORM_SCALE)) != 0 || at.getScaleX() <= 0) {
+            return false;
+        }
+
+        if (fontId < 0 || fontId > 0xFFF) {
+            return false;
+        }
+        Font font = FontInfo.getFont(fontId);
+        float psize = size * (float) at.getScaleX() * font.getSize2D();
+        if (psize <= 0 || psize > MAX_SIZE) {
+            return false;
+        }
+
+        // without fractional metrics, Java2D puts the glyphs on the pixel grid
+        int sub = RenderingHints.VALUE_FRACTIONALMETRICS_ON.equals(g2.getRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS)) ? SUBPIXELS : 1;
+        double dx = (at.getScaleX() * x + at.getTranslateX()) * sub;
+        double dy = (at.getScaleY() * y + at.getTranslateY()) * sub;
+        long px = (long) Math.floor(dx + 0.5);
+        long py = (long) Math.floor(dy + 0.5);
+        int sx = (int) (px & (sub - 1));
+        int sy = (int) (py & (sub - 1));
+        int ix = (int) ((px - sx) / sub);
+        int iy = (int) ((py - sy) / sub);
+
+        long key = ((long) fontId << 52) | ((long) c << 36) | ((long) Float.floatToIntBits(psize) << 4) | (sx << 2) | sy;
+        int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        Segment segment = segments[(h >>> 16) & (SEGMENTS - 1)];
+        Glyph glyph = segment.get(key);
+        if (glyph == null) {
+            glyph = new Glyph(font.deriveFont(psize), c, (float) sx / sub, (float) sy / sub);
+            segment.put(key, glyph);
+        }
+
+        t.composite(glyph, ix + glyph.x, iy + glyph.y, g2.getColor());
+
+        return true;
+    }
+
+    /**
+     * A part of the cache, with the glyphs in LRU order.
+     */
+    private static class Segment {
+
+        private final LinkedHashMap<Long, Glyph> glyphs = new LinkedHashMap<Long, Glyph>(32, 0.75f, true);
+        private long maxBytes;
+        private long bytes;
+
+        Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized Glyph get(long key) {
+            return glyphs.get(key);
+        }
+
+        synchronized void put(long key, Glyph glyph) {
+            Glyph old = glyphs.put(key, glyph);
+            if (old != null) {
+                bytes -= old.alpha.length;
+            }
+            bytes += glyph.alpha.length;
+            evict();
+        }
+
+        synchronized void setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            evict();
+        }
+
+        synchronized long getBytes() {
+            return bytes;
+        }
+
+        synchronized void clear() {
+            glyphs.clear();
+            bytes = 0;
+        }
+
+        private void evict() {
+            Iterator<Glyph> iter = glyphs.values().iterator();
+            while (bytes > maxBytes && glyphs.size() > 1 && iter.hasNext()) {
+                bytes -= iter.next().alpha.length;
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * The coverage of a glyph.
+     */
+    private static class Glyph {
+
+        // position of the top left corner relatively to the origin
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+        final byte[] alpha;
+
+        Glyph(Font font, char c, float sx, float sy) {
+            GlyphVector gv = font.createGlyphVector(frc, new char[] {c});
+            Rectangle r = gv.getPixelBounds(frc, sx, sy);
+            x = r.x;
+            y = r.y;
+            width = Math.max(r.width, 0);
+            height = Math.max(r.height, 0);
+            alpha = new byte[width * height];
+            if (alpha.length == 0) {
+                return;
+            }
+
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2 = image.createGraphics();
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g2.setColor(Color.BLACK);
+            g2.drawGlyphVector(gv, sx - x, sy - y);
+            g2.dispose();
+
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            for (int i = 0; i < alpha.length; i++) {
+                alpha[i] = (byte) (pixels[i] >>> 24);
+            }
+        }
+    }
+
+    /**
+     * The image painted by the current thread.
+     */
+    private static class Target {
+
+        final Graphics2D g2;
+        final int[] pixels;
+        final int width;
+        final int height;
+
+        Target(Graphics2D g2, BufferedImage image) {
+            this.g2 = g2;
+            this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            this.width = image.getWidth();
+            this.height = image.getHeight();
+        }
+
+        /**
+         * Composite (source over) the glyph in the given color.
+         */
+        void composite(Glyph glyph, int x, int y, Color color) {
+            int rgb = color.getRGB() & 0xFFFFFF;
+            int ca = color.getAlpha();
+            int sr = (rgb >> 16) & 0xFF, sg = (rgb >> 8) & 0xFF, sb = rgb & 0xFF;
+            int x0 = Math.max(x, 0), x1 = Math.min(x + glyph.width, width);
+            int y0 = Math.max(y, 0), y1 = Math.min(y + glyph.height, height);
+            for (int j = y0; j < y1; j++) {
+                int src = (j - y) * glyph.width - x;
+                int dst = j * width;
+                for (int i = x0; i < x1; i++) {
+                    int a = glyph.alpha[src + i] & 0xFF;
+                    if (a == 0) {
+                        continue;
+                    }
+                    if (ca != 0xFF) {
+                        a = (a * ca + 127) / 255;
+                    }
+                    int d = pixels[dst + i];
+                    int da = d >>> 24;
+                    if (a == 0xFF || da == 0) {
+                        pixels[dst + i] = (a << 24) | rgb;
+                    } else {
+                        int fa = (da * (0xFF - a) + 127) / 255;
+                        int oa = a + fa;
+                        int r = (sr * a + ((d >> 16) & 0xFF) * fa + oa / 2) / oa;
+                        int g = (sg * a + ((d >> 8) & 0xFF) * fa + oa / 2) / oa;
+                        int b = (sb * a + (d & 0xFF) * fa + oa / 2) / oa;
+                        pixels[dst + i] = (oa << 24) | (r << 16) | (g << 8) | b;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/* LazyAlphabetRegistration.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+import java.lang.Character.UnicodeBlock;
+
+/**
+ * The registration of an alphabet bundled with jlatexmath: the registration class is
+ * only instantiated when a character of the alphabet is met for the first time.
+ */
+final class LazyAlphabetRegistration implements AlphabetRegistration {
+
+    private final String className;
+    private final Character.UnicodeBlock[] blocks;
+    private AlphabetRegistration pack;
+
+    private LazyAlphabetRegistration(String className, Character.UnicodeBlock[] blocks) {
+        this.className = className;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Register an alphabet if its registration class is available.
+     * @param className the name of a class implementing AlphabetRegistration
+     * @param blocks the Unicode blocks of the alphabet
+     */
+    static void register(String className, Character.UnicodeBlock[] blocks) {
+        if (LazyAlphabetRegistration.class.getClassLoader().getResource(className.replace('.', '/') + ".class") != null) {
+            DefaultTeXFont.registerAlphabet(new LazyAlphabetRegistration(className, blocks));
+        }
+    }
+
+    public Character.UnicodeBlock[] getUnicodeBlock() {
+        return blocks;
+    }
+
+    public Object getPackage() throws AlphabetRegistrationException {
+        return getRegistration();
+    }
+
+    public String getTeXFontFileName() {
+        try {
+            return getRegistration().getTeXFontFileName();
+        } catch (AlphabetRegistrationException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    /**
+     * @return the registration, instantiated on the first call
+     */
+    private synchronized AlphabetRegistration getRegistration() throws AlphabetRegistrationException {
+        if (pack == null) {
+            try {
+                pack = (AlphabetRegistration) Class.forName(className).newInstance();
+            } catch (Exception e) {
+                throw new AlphabetRegistrationException("Problem in loading the class " + className + " :\n" + e.getMessage());
+            }
+        }
+        return pack;
+    }
+}
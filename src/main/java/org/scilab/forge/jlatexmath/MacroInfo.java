@@ -32,6 +32,12 @@ import java.lang.reflect.Method;
 import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
 
+/**
+ * A command: the number of its arguments and options, and how it is executed. The
+ * commands of a package (a class with methods taking a TeXParser and a String[]) are
+ * called by reflection, unless the package is a MacroPackage which binds them
+ * directly when they are registered.
+ */
 public class MacroInfo {
     
     public static HashMap<String, MacroInfo> Commands = new HashMap<String, MacroInfo>(300);
@@ -39,6 +45,7 @@ public class MacroInfo {
 
     public Object pack;
     public Method macro;
+    public MacroFunction function;
     public int nbArgs;
     public boolean hasOptions = false;
     public int posOpts;
@@ -47,6 +54,7 @@ public class MacroInfo {
 	this.pack = pack;
 	this.macro = macro;
 	this.nbArgs = nbArgs;
+	bind();
     }
 
     public MacroInfo(Object pack, Method macro, int nbArgs, int posOpts) {
@@ -64,6 +72,16 @@ public class MacroInfo {
     public MacroInfo(int nbArgs) {
 	this(null, (Method) null, nbArgs);
     }
+
+    public MacroInfo(MacroFunction function, int nbArgs) {
+	this(null, (Method) null, nbArgs);
+	this.function = function;
+    }
+
+    public MacroInfo(MacroFunction function, int nbArgs, int posOpts) {
+	this(nbArgs, posOpts);
+	this.function = function;
+    }
     
     public MacroInfo(String className, String methodName, float nbArgs) {
 	int nba = (int) nbArgs;
@@ -79,6 +97,7 @@ public class MacroInfo {
 	    this.pack = pack;
 	    this.macro = pack.getClass().getDeclaredMethod(methodName, args);
 	    this.nbArgs = nba;
+	    bind();
 	} catch (Exception e) {
 	    System.err.println("Cannot load package " + className + ":");
 	    System.err.println(e.toString());
@@ -99,6 +118,7 @@ public class MacroInfo {
 	    this.pack = pack;
 	    this.macro = pack.getClass().getDeclaredMethod(methodName, args);
 	    this.nbArgs = nba;
+	    bind();
 	    this.hasOptions = true;
 	    this.posOpts = (int) posOpts;
 	} catch (Exception e) {
@@ -107,7 +127,21 @@ public class MacroInfo {
 	}
     }
 
+    private void bind() {
+	if (pack instanceof MacroPackage && macro != null) {
+	    function = ((MacroPackage) pack).getMacro(macro.getName());
+	}
+    }
+
     public Object invoke(final TeXParser tp, final String[] args) throws ParseException {
+	if (function != null) {
+	    try {
+		return function.invoke(tp, args);
+	    } catch (Exception e) {
+		throw new ParseException("Problem with command " + args[0] + " at position " + tp.getLine() + ":" + tp.getCol() + "\n" + e.getMessage(), e);
+	    }
+	}
+
 	Object[] argsMethod = {(Object) tp, (Object) args};
 	try {
 	    return macro.invoke(pack, argsMethod);
@@ -0,0 +1,45 @@
+/* MacroPackage.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+
+package org.scilab.forge.jlatexmath;
+
+/**
+ * A package of commands which are bound directly to their code when they are
+ * registered, instead of being called by reflection: a MacroInfo created with the
+ * name of a method of the package asks the package for the function of this method.
+ * <p>
+ * It is meant for the packages added by the applications: the predefined commands
+ * are already called without reflection, through the switch of PredefMacroInfo.
+ */
+public interface MacroPackage {
+
+    /**
+     * @param methodName the name of the method implementing a command
+     * @return the function calling the method or null to call it by reflection
+     */
+    MacroFunction getMacro(String methodName);
+}
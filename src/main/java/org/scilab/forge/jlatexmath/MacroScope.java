@@ -0,0 +1,94 @@
+/* MacroScope.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+
+package org.scilab.forge.jlatexmath;
+
+/**
+ * The commands and the environments defined with \newcommand, \newenvironment... in a
+ * formula. All the parsers of a formula share its scope, where the definitions hide
+ * the global commands with the same names; they are dropped with the formula instead
+ * of being added to the global ones (see NewCommandMacro).
+ * <p>
+ * A formula is parsed by a single thread, so the scope is not synchronized.
+ */
+final class MacroScope {
+
+    // there are only a few definitions in a formula
+    private CommandTable.Entry[] entries = new CommandTable.Entry[4];
+    private int size;
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param buf the parsed string
+     * @param start the start of the name of a command (without the backslash)
+     * @param end the end of the name
+     * @return the entry of the command or null if it is not defined in the scope
+     */
+    CommandTable.Entry get(GapBuffer buf, int start, int end) {
+        int n = end - start;
+        for (int i = 0; i < size; i++) {
+            CommandTable.Entry e = entries[i];
+            if (e.chars.length == n && buf.regionMatches(start, e.chars)) {
+                return e;
+            }
+        }
+
+        return null;
+    }
+
+    MacroTemplate get(String name) {
+        int h = name.hashCode();
+        for (int i = 0; i < size; i++) {
+            CommandTable.Entry e = entries[i];
+            if (e.hash == h && e.name.equals(name)) {
+                return (MacroTemplate) e.command;
+            }
+        }
+
+        return null;
+    }
+
+    void put(String name, MacroTemplate macro) {
+        CommandTable.Entry entry = new CommandTable.Entry(name, macro, name.hashCode(), null);
+        for (int i = 0; i < size; i++) {
+            if (entries[i].hash == entry.hash && entries[i].name.equals(name)) {
+                entries[i] = entry;
+                return;
+            }
+        }
+
+        if (size == entries.length) {
+            CommandTable.Entry[] e = new CommandTable.Entry[2 * size];
+            System.arraycopy(entries, 0, e, 0, size);
+            entries = e;
+        }
+        entries[size++] = entry;
+    }
+}
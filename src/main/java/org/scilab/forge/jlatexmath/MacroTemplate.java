@@ -0,0 +1,115 @@
+/* MacroTemplate.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+
+package org.scilab.forge.jlatexmath;
+
+/**
+ * The code of a command defined with \newcommand (or of an environment defined with
+ * \newenvironment), split once into the texts around its parameters #1 ... #9, so an
+ * expansion only appends the texts and the arguments, in one pass.
+ */
+final class MacroTemplate extends MacroInfo {
+
+    // texts[i] is the text before the parameter params[i], the last text ends the code
+    private final String[] texts;
+    private final int[] params;
+    // the default value of the optional first parameter or null
+    private final String option;
+    private final int length;
+
+    MacroTemplate(String code, int nbArgs, String option) {
+        super(nbArgs);
+        if (option != null) {
+            hasOptions = true;
+            posOpts = 1;
+        }
+        this.option = option;
+
+        int n = 0;
+        for (int i = 0; i < code.length() - 1; i++) {
+            if (isParam(code, i)) {
+                n++;
+                i++;
+            }
+        }
+
+        texts = new String[n + 1];
+        params = new int[n];
+        int start = 0;
+        n = 0;
+        for (int i = 0; i < code.length() - 1; i++) {
+            if (isParam(code, i)) {
+                texts[n] = code.substring(start, i);
+                params[n++] = code.charAt(i + 1) - '0';
+                start = i + 2;
+                i++;
+            }
+        }
+        texts[n] = code.substring(start);
+        length = code.length();
+    }
+
+    private static boolean isParam(String code, int i) {
+        char c = code.charAt(i + 1);
+        return code.charAt(i) == '#' && c >= '1' && c <= '9';
+    }
+
+    /**
+     * @param args the arguments got by TeXParser.getOptsArgs
+     * @return the code where the parameters are replaced by the arguments, a parameter
+     * without argument is kept
+     */
+    String expand(String[] args) {
+        int nbargs = args.length - 11;
+        String opt = args[nbargs + 1] != null ? args[nbargs + 1] : option;
+        int dec = opt == null ? 0 : 1;
+        StringBuilder buf = new StringBuilder(length + 16 * params.length);
+        for (int i = 0; i < params.length; i++) {
+            buf.append(texts[i]);
+            int p = params[i] - dec;
+            if (p == 0) {
+                buf.append(opt);
+            } else if (p <= nbargs) {
+                buf.append(args[p]);
+            } else {
+                buf.append('#').append(params[i]);
+            }
+        }
+
+        return buf.append(texts[params.length]).toString();
+    }
+
+    public Object invoke(final TeXParser tp, final String[] args) throws ParseException {
+        for (int i = 1; i <= args.length - 11; i++) {
+            if (args[i] == null) {
+                throw new ParseException("Problem with command " + args[0] + " at position " + tp.getLine() + ":" + tp.getCol() + "\nMissing argument");
+            }
+        }
+
+        return expand(args);
+    }
+}
@@ -39,8 +39,10 @@ public class Metrics {
     private final float d;
     private final float i;
     private final float s;
+    private final float factor;
     
     public Metrics(float w, float h, float d, float i, float factor, float size) {
+	this.factor = factor;
 	this.w = w * factor;
 	this.h = h * factor;
 	this.d = d * factor;
@@ -67,4 +69,11 @@ public class Metrics {
     public float getSize() {
 	return s;
     }
+
+    /**
+     * @return the factor applied to the metrics, i.e. the size in pixels
+     */
+    float getFactor() {
+	return factor;
+    }
 }
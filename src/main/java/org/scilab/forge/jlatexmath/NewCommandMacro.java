@@ -28,65 +28,75 @@
 
 package org.scilab.forge.jlatexmath;
 
-import java.util.HashMap;
-import java.util.regex.Matcher;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The commands defined with \newcommand. The global ones are defined with the static
+ * methods and are available in all the formulas; the ones defined in a formula are
+ * kept in the scope of its parser (see MacroScope). The code of a command is compiled
+ * once in a MacroTemplate.
+ */
 public class NewCommandMacro {
 
-    protected static HashMap<String, String> macrocode = new HashMap<String, String>();
-    protected static HashMap<String, String> macroreplacement = new HashMap<String, String>();
+    protected static Map<String, MacroTemplate> macros = new ConcurrentHashMap<String, MacroTemplate>();
 
     public NewCommandMacro() {
     }
     
-    public static void addNewCommand(String name, String code, int nbargs) throws ParseException {
-	//if (macrocode.get(name) != null)
+    public static synchronized void addNewCommand(String name, String code, int nbargs) throws ParseException {
+	//if (macros.get(name) != null)
 	//throw new ParseException("Command " + name + " already exists ! Use renewcommand instead ...");
-	macrocode.put(name, code);
-	MacroInfo.Commands.put(name, new MacroInfo("org.scilab.forge.jlatexmath.NewCommandMacro", "executeMacro", nbargs));
+	put(name, new MacroTemplate(code, nbargs, null));
     }
     
-    public static void addNewCommand(String name, String code, int nbargs, String def) throws ParseException {
-	if (macrocode.get(name) != null)
+    public static synchronized void addNewCommand(String name, String code, int nbargs, String def) throws ParseException {
+	if (macros.get(name) != null)
 	    throw new ParseException("Command " + name + " already exists ! Use renewcommand instead ...");
-	macrocode.put(name, code);
-	macroreplacement.put(name, def);
-	MacroInfo.Commands.put(name, new MacroInfo("org.scilab.forge.jlatexmath.NewCommandMacro", "executeMacro", nbargs, 1));
+	put(name, new MacroTemplate(code, nbargs, def));
     }
     
     public static boolean isMacro(String name) {
-	return macrocode.containsKey(name);
+	return macros.containsKey(name);
     }
     
-    public static void addReNewCommand(String name, String code, int nbargs) {
-	if (macrocode.get(name) == null)
+    public static synchronized void addReNewCommand(String name, String code, int nbargs) {
+	if (macros.get(name) == null)
+	    throw new ParseException("Command " + name + " is not defined ! Use newcommand instead ...");
+	put(name, new MacroTemplate(code, nbargs, null));
+    }
+
+    private static void put(String name, MacroTemplate macro) {
+	macros.put(name, macro);
+	MacroInfo.Commands.put(name, macro);
+	CommandTable.invalidate();
+    }
+
+    /**
+     * Define a command in the formula parsed by tp.
+     */
+    static void addNewCommand(TeXParser tp, String name, String code, int nbargs, String def) throws ParseException {
+	if (def != null && isMacro(tp, name))
+	    throw new ParseException("Command " + name + " already exists ! Use renewcommand instead ...");
+	tp.getScope().put(name, new MacroTemplate(code, nbargs, def));
+    }
+
+    static void addReNewCommand(TeXParser tp, String name, String code, int nbargs) throws ParseException {
+	if (!isMacro(tp, name))
 	    throw new ParseException("Command " + name + " is not defined ! Use newcommand instead ...");
-	macrocode.put(name, code);
-	MacroInfo.Commands.put(name, new MacroInfo("org.scilab.forge.jlatexmath.NewCommandMacro", "executeMacro", nbargs));
+	tp.getScope().put(name, new MacroTemplate(code, nbargs, null));
+    }
+
+    static boolean isMacro(TeXParser tp, String name) {
+	return tp.getScope().get(name) != null || macros.containsKey(name);
     }
     
     public String executeMacro(TeXParser tp, String[] args) {
-	String code = macrocode.get(args[0]);
-	String rep;
-	int nbargs = args.length - 11;
-	int dec = 0;
-	
-	
-	if (args[nbargs + 1] != null) {
-	    dec = 1;
-	    rep = Matcher.quoteReplacement(args[nbargs + 1]);
-	    code = code.replaceAll("#1", rep);
-	} else if (macroreplacement.get(args[0]) != null) {
-	    dec = 1;
-	    rep = Matcher.quoteReplacement(macroreplacement.get(args[0]));
-	    code = code.replaceAll("#1", rep);
+	MacroTemplate macro = tp.getScope().get(args[0]);
+	if (macro == null) {
+	    macro = macros.get(args[0]);
 	}
 
-	for (int i = 1; i <= nbargs; i++) {
-	    rep = Matcher.quoteReplacement(args[i]);
-	    code = code.replaceAll("#" + (i + dec), rep);
-	}
-	
-	return code;
+	return macro.expand(args);
     }
-}
\ No newline at end of file
+}
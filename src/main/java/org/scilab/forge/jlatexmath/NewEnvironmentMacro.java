@@ -28,23 +28,33 @@
 
 package org.scilab.forge.jlatexmath;
 
-import java.util.HashMap;
-import java.util.regex.Matcher;
-
 public class NewEnvironmentMacro extends NewCommandMacro {
     
     public NewEnvironmentMacro() {
     }
     
     public static void addNewEnvironment(String name, String begdef, String enddef, int nbArgs) throws ParseException {
-	//if (macrocode.get(name + "@env") != null)
+	//if (macros.get(name + "@env") != null)
 	//throw new ParseException("Environment " + name + " already exists ! Use renewenvironment instead ...");
 	addNewCommand(name + "@env", begdef + " #" + (nbArgs + 1) + " " + enddef, nbArgs + 1);
     }
 
     public static void addReNewEnvironment(String name, String begdef, String enddef, int nbArgs) throws ParseException {
-	if (macrocode.get(name + "@env") == null)
+	if (macros.get(name + "@env") == null)
 	    throw new ParseException("Environment " + name + "is not defined ! Use newenvironment instead ...");
 	addReNewCommand(name + "@env", begdef + " #" + (nbArgs + 1) + " " + enddef, nbArgs + 1);
     }
+
+    /**
+     * Define an environment in the formula parsed by tp.
+     */
+    static void addNewEnvironment(TeXParser tp, String name, String begdef, String enddef, int nbArgs) throws ParseException {
+	addNewCommand(tp, name + "@env", begdef + " #" + (nbArgs + 1) + " " + enddef, nbArgs + 1, null);
+    }
+
+    static void addReNewEnvironment(TeXParser tp, String name, String begdef, String enddef, int nbArgs) throws ParseException {
+	if (!isMacro(tp, name + "@env"))
+	    throw new ParseException("Environment " + name + "is not defined ! Use newenvironment instead ...");
+	addNewCommand(tp, name + "@env", begdef + " #" + (nbArgs + 1) + " " + enddef, nbArgs + 1, null);
+    }
 }
\ No newline at end of file
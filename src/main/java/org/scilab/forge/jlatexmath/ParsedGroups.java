@@ -0,0 +1,279 @@
+/* ParsedGroups.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+
+package org.scilab.forge.jlatexmath;
+
+/**
+ * The groups and the commands parsed in the source of a formula, with their atoms,
+ * so the ones which are not changed by an edit of the source don't need to be parsed
+ * again (see TeXFormula.edit). The groups are kept in the order their parsing ended,
+ * so the groups inside a group are just before it.
+ * <p>
+ * The atoms are copied before their use by an enclosing atom, which may modify them,
+ * and they are copied again when they are reused.
+ */
+final class ParsedGroups {
+
+    // a group got by TeXParser.getArgument
+    static final int ARGUMENT = 0;
+    // a group parsed in place in a TeXFormula (see TeXParser.parseGroup)
+    static final int FORMULA = 1;
+    // a command with its arguments (see TeXParser.getCommandAtom)
+    static final int COMMAND = 2;
+
+    private int[] starts;
+    private int[] ends;
+    // the end of the text read to parse the group, which may be after its end
+    private int[] reaches;
+    // the end of the text the group was parsed in (the end of the source or of an
+    // enclosing group), a group which read up to it may read further in a longer text
+    private int[] limits;
+    // the kind, and the state of the parser at the start and at the end of the group
+    private int[] states;
+    // the number of lines of the group and the position of its last new line
+    private int[] lines;
+    private int[] cols;
+    private String[] styles;
+    private Atom[] atoms;
+    private int size;
+
+    // the text between editStart and editEnd was replaced by a text of
+    // editEnd - editStart + delta characters
+    private int editStart;
+    private int editEnd;
+    private int delta;
+    // the groups by start: first[start] - 1 is the last group starting at start and
+    // next[i] - 1 is the group starting at the same position before the group i
+    private int[] first;
+    private int[] next;
+
+    ParsedGroups() {
+        starts = new int[16];
+        ends = new int[16];
+        reaches = new int[16];
+        limits = new int[16];
+        states = new int[16];
+        lines = new int[16];
+        cols = new int[16];
+        styles = new String[16];
+        atoms = new Atom[16];
+    }
+
+    private ParsedGroups(ParsedGroups groups, int start, int end, int length) {
+        starts = groups.starts;
+        ends = groups.ends;
+        reaches = groups.reaches;
+        limits = groups.limits;
+        states = groups.states;
+        lines = groups.lines;
+        cols = groups.cols;
+        styles = groups.styles;
+        atoms = groups.atoms;
+        size = groups.size;
+        editStart = start;
+        editEnd = end;
+        delta = length - (end - start);
+    }
+
+    /**
+     * @return the groups as seen from the source where the text between start and
+     * end has been replaced by a text of the given length
+     */
+    ParsedGroups edited(int start, int end, int length) {
+        return new ParsedGroups(this, start, end, length);
+    }
+
+    /**
+     * Add a group which has just been parsed.
+     *
+     * @param kind ARGUMENT, FORMULA or COMMAND
+     * @param start the start of the group
+     * @param end the end of the group
+     * @param reach the end of the text read to parse the group
+     * @param limit the end of the text the group was parsed in
+     * @param context the state of the parser at the start of the group
+     * @param endContext the state of the parser at the end of the group
+     * @param line the number of lines of the group
+     * @param col the position of the last new line of the group
+     * @param style the text style of the formula
+     * @param atom the atom of the group
+     */
+    void add(int kind, int start, int end, int reach, int limit, int context, int endContext, int line, int col, String style, Atom atom) {
+        addCopy(start, end, reach, limit, kind | context << 2 | endContext << 16, line, col, style, atom == null ? null : atom.clone());
+    }
+
+    private void addCopy(int start, int end, int reach, int limit, int state, int line, int col, String style, Atom atom) {
+        if (size == starts.length) {
+            starts = grow(starts);
+            ends = grow(ends);
+            reaches = grow(reaches);
+            limits = grow(limits);
+            states = grow(states);
+            lines = grow(lines);
+            cols = grow(cols);
+            String[] s = new String[2 * size];
+            System.arraycopy(styles, 0, s, 0, size);
+            styles = s;
+            Atom[] a = new Atom[2 * size];
+            System.arraycopy(atoms, 0, a, 0, size);
+            atoms = a;
+        }
+        starts[size] = start;
+        ends[size] = end;
+        reaches[size] = reach;
+        limits[size] = limit;
+        states[size] = state;
+        lines[size] = line;
+        cols[size] = col;
+        styles[size] = style;
+        atoms[size] = atom;
+        size++;
+    }
+
+    private static int[] grow(int[] a) {
+        int[] b = new int[2 * a.length];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+
+    /**
+     * Find a group which has not been changed by the edit.
+     *
+     * @param kind the kind of the group
+     * @param start the start of the group in the edited source
+     * @param end the end of the group in the edited source, or -1 if it is not known
+     * (for an ARGUMENT or a COMMAND, which end where their parsing ends)
+     * @param limit the end of the text the group is parsed in
+     * @param context the state of the parser at the start of the group
+     * @param style the text style of the formula
+     * @return the index of the group or -1
+     */
+    int find(int kind, int start, int end, int limit, int context, String style) {
+        int old;
+        if (start < editStart) {
+            old = start;
+        } else if (start >= editEnd + delta) {
+            old = start - delta;
+        } else {
+            return -1;
+        }
+
+        if (first == null) {
+            int max = 0;
+            for (int i = 0; i < size; i++) {
+                max = Math.max(max, starts[i]);
+            }
+            first = new int[max + 1];
+            next = new int[size];
+            for (int i = 0; i < size; i++) {
+                next[i] = first[starts[i]];
+                first[starts[i]] = i + 1;
+            }
+        }
+        if (old >= first.length) {
+            return -1;
+        }
+
+        int state = kind | context << 2;
+        for (int i = first[old] - 1; i != -1; i = next[i] - 1) {
+            if ((states[i] & 0xFFFF) == state && (reaches[i] <= editStart || starts[i] >= editEnd)
+                && (end == -1 || getEnd(i) == end) && fits(i, limit) && (style == null ? styles[i] == null : style.equals(styles[i]))) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /*
+     * A group which read up to its limit can only be reused with the same limit (it may
+     * read further in a longer text), the other ones if the text they read is before it.
+     */
+    private boolean fits(int i, int limit) {
+        if (reaches[i] > limits[i]) {
+            return limits[i] + (limits[i] <= editStart ? 0 : delta) == limit;
+        }
+
+        return reaches[i] + shift(i) <= limit;
+    }
+
+    /**
+     * @return a copy of the atom of the group i
+     */
+    Atom getAtom(int i) {
+        return atoms[i] == null ? null : atoms[i].clone();
+    }
+
+    /**
+     * @return the end of the group i in the edited source
+     */
+    int getEnd(int i) {
+        return ends[i] + shift(i);
+    }
+
+    /**
+     * @return the number of lines of the group i
+     */
+    int getLines(int i) {
+        return lines[i];
+    }
+
+    /**
+     * @return the position of the last new line of the group i in the edited source
+     */
+    int getCol(int i) {
+        return cols[i] + shift(i);
+    }
+
+    /**
+     * @return the state of the parser at the end of the group i
+     */
+    int getEndContext(int i) {
+        return states[i] >>> 16;
+    }
+
+    // the groups which are not changed by the edit are before or after it
+    private int shift(int i) {
+        return reaches[i] <= editStart ? 0 : delta;
+    }
+
+    /**
+     * Add a group reused from the groups of the source before the edit, with the
+     * groups inside it.
+     */
+    void addReused(ParsedGroups groups, int i) {
+        int first = i;
+        while (first > 0 && groups.starts[first - 1] >= groups.starts[i] && groups.ends[first - 1] <= groups.ends[i]) {
+            first--;
+        }
+        int shift = groups.shift(i);
+        for (int j = first; j <= i; j++) {
+            int limit = groups.limits[j] + (groups.limits[j] <= groups.editStart ? 0 : groups.delta);
+            addCopy(groups.starts[j] + shift, groups.ends[j] + shift, groups.reaches[j] + shift, limit, groups.states[j], groups.lines[j], groups.cols[j] + shift, groups.styles[j], groups.atoms[j]);
+        }
+    }
+}
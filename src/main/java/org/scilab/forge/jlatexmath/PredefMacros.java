@@ -656,21 +656,22 @@ public class PredefMacros {
     }
 
     public static final Atom nolimits_macro(final TeXParser tp, final String[] args) throws ParseException {
-        Atom at = tp.getLastAtom();
+        // the last atom can be shared (e.g. a predefined formula), so it is not modified
+        Atom at = tp.getLastAtom().clone();
         at.type_limits = TeXConstants.SCRIPT_NOLIMITS;
-        return at.clone();
+        return at;
     }
 
     public static final Atom limits_macro(final TeXParser tp, final String[] args) throws ParseException {
-        Atom at = tp.getLastAtom();
+        Atom at = tp.getLastAtom().clone();
         at.type_limits = TeXConstants.SCRIPT_LIMITS;
-        return at.clone();
+        return at;
     }
 
     public static final Atom normal_macro(final TeXParser tp, final String[] args) throws ParseException {
-        Atom at = tp.getLastAtom();
+        Atom at = tp.getLastAtom().clone();
         at.type_limits = TeXConstants.SCRIPT_NORMAL;
-        return at.clone();
+        return at;
     }
 
     public static final Atom left_macro(final TeXParser tp, final String[] args) throws ParseException {
@@ -714,7 +715,7 @@ public class PredefMacros {
             ArrayOfAtoms array = new ArrayOfAtoms();
             array.add(tp.formula.root);
             array.addRow();
-            TeXParser parser = new TeXParser(tp.getIsPartial(), tp.getStringFromCurrentPos(), array, false);
+            TeXParser parser = new TeXParser(tp, tp.getStringFromCurrentPos(), array);
             parser.parse();
             array.checkDimensions();
             tp.finish();
@@ -744,16 +745,14 @@ public class PredefMacros {
 
     public static final Atom smallmatrixATATenv_macro(final TeXParser tp, final String[] args) throws ParseException {
         ArrayOfAtoms array = new ArrayOfAtoms();
-        TeXParser parser = new TeXParser(tp.getIsPartial(), args[1], array, false);
-        parser.parse();
+        tp.parseArray(args[1], array);
         array.checkDimensions();
         return new MatrixAtom(tp.getIsPartial(), array, MatrixAtom.SMALLMATRIX);
     }
 
     public static final Atom matrixATATenv_macro(final TeXParser tp, final String[] args) throws ParseException {
         ArrayOfAtoms array = new ArrayOfAtoms();
-        TeXParser parser = new TeXParser(tp.getIsPartial(), args[1], array, false);
-        parser.parse();
+        tp.parseArray(args[1], array);
         array.checkDimensions();
         return new MatrixAtom(tp.getIsPartial(), array, MatrixAtom.MATRIX);
     }
@@ -778,32 +777,28 @@ public class PredefMacros {
 
     public static final Atom arrayATATenv_macro(final TeXParser tp, final String[] args) throws ParseException {
         ArrayOfAtoms array = new ArrayOfAtoms();
-        TeXParser parser = new TeXParser(tp.getIsPartial(), args[2], array, false);
-        parser.parse();
+        tp.parseArray(args[2], array);
         array.checkDimensions();
         return new MatrixAtom(tp.getIsPartial(), array, args[1]);
     }
 
     public static final Atom alignATATenv_macro(final TeXParser tp, final String[] args) throws ParseException {
         ArrayOfAtoms array = new ArrayOfAtoms();
-        TeXParser parser = new TeXParser(tp.getIsPartial(), args[1], array, false);
-        parser.parse();
+        tp.parseArray(args[1], array);
         array.checkDimensions();
         return new MatrixAtom(tp.getIsPartial(), array, MatrixAtom.ALIGN);
     }
 
     public static final Atom flalignATATenv_macro(final TeXParser tp, final String[] args) throws ParseException {
         ArrayOfAtoms array = new ArrayOfAtoms();
-        TeXParser parser = new TeXParser(tp.getIsPartial(), args[1], array, false);
-        parser.parse();
+        tp.parseArray(args[1], array);
         array.checkDimensions();
         return new MatrixAtom(tp.getIsPartial(), array, MatrixAtom.FLALIGN);
     }
 
     public static final Atom alignatATATenv_macro(final TeXParser tp, final String[] args) throws ParseException {
         ArrayOfAtoms array = new ArrayOfAtoms();
-        TeXParser parser = new TeXParser(tp.getIsPartial(), args[2], array, false);
-        parser.parse();
+        tp.parseArray(args[2], array);
         array.checkDimensions();
         int n = Integer.parseInt(args[1]);
         if (array.col != 2 * n) {
@@ -815,16 +810,14 @@ public class PredefMacros {
 
     public static final Atom alignedATATenv_macro(final TeXParser tp, final String[] args) throws ParseException {
         ArrayOfAtoms array = new ArrayOfAtoms();
-        TeXParser parser = new TeXParser(tp.getIsPartial(), args[1], array, false);
-        parser.parse();
+        tp.parseArray(args[1], array);
         array.checkDimensions();
         return new MatrixAtom(tp.getIsPartial(), array, MatrixAtom.ALIGNED);
     }
 
     public static final Atom alignedatATATenv_macro(final TeXParser tp, final String[] args) throws ParseException {
         ArrayOfAtoms array = new ArrayOfAtoms();
-        TeXParser parser = new TeXParser(tp.getIsPartial(), args[2], array, false);
-        parser.parse();
+        tp.parseArray(args[2], array);
         array.checkDimensions();
         int n = Integer.parseInt(args[1]);
         if (array.col != 2 * n) {
@@ -836,8 +829,7 @@ public class PredefMacros {
 
     public static final Atom multlineATATenv_macro(final TeXParser tp, final String[] args) throws ParseException {
         ArrayOfAtoms array = new ArrayOfAtoms();
-        TeXParser parser = new TeXParser(tp.getIsPartial(), args[1], array, false);
-        parser.parse();
+        tp.parseArray(args[1], array);
         array.checkDimensions();
         if (array.col > 1) {
             throw new ParseException("Character '&' is only available in array mode !");
@@ -851,8 +843,7 @@ public class PredefMacros {
 
     public static final Atom gatherATATenv_macro(final TeXParser tp, final String[] args) throws ParseException {
         ArrayOfAtoms array = new ArrayOfAtoms();
-        TeXParser parser = new TeXParser(tp.getIsPartial(), args[1], array, false);
-        parser.parse();
+        tp.parseArray(args[1], array);
         array.checkDimensions();
         if (array.col > 1) {
             throw new ParseException("Character '&' is only available in array mode !");
@@ -866,8 +857,7 @@ public class PredefMacros {
 
     public static final Atom gatheredATATenv_macro(final TeXParser tp, final String[] args) throws ParseException {
         ArrayOfAtoms array = new ArrayOfAtoms();
-        TeXParser parser = new TeXParser(tp.getIsPartial(), args[1], array, false);
-        parser.parse();
+        tp.parseArray(args[1], array);
         array.checkDimensions();
         if (array.col > 1) {
             throw new ParseException("Character '&' is only available in array mode !");
@@ -907,10 +897,7 @@ public class PredefMacros {
             throw new ParseException("The optional argument should be an integer !");
         }
 
-        if (args[4] == null)
-            NewCommandMacro.addNewCommand(newcom.substring(1), args[2], nbArgs.intValue());
-        else
-            NewCommandMacro.addNewCommand(newcom.substring(1), args[2], nbArgs.intValue(), args[4]);
+        NewCommandMacro.addNewCommand(tp, newcom.substring(1), args[2], nbArgs.intValue(), args[4]);
 
         return null;
     }
@@ -930,7 +917,7 @@ public class PredefMacros {
         if (nbArgs == null)
             throw new ParseException("The optional argument should be an integer !");
 
-        NewCommandMacro.addReNewCommand(newcom.substring(1), args[2], nbArgs.intValue());
+        NewCommandMacro.addReNewCommand(tp, newcom.substring(1), args[2], nbArgs.intValue());
 
         return null;
     }
@@ -950,7 +937,7 @@ public class PredefMacros {
         if (opt == null)
             throw new ParseException("The optional argument should be an integer !");
 
-        NewEnvironmentMacro.addNewEnvironment(args[1], args[2], args[3], opt.intValue());
+        NewEnvironmentMacro.addNewEnvironment(tp, args[1], args[2], args[3], opt.intValue());
         return null;
     }
 
@@ -959,7 +946,7 @@ public class PredefMacros {
         if (opt == null)
             throw new ParseException("The optional argument should be an integer !");
 
-        NewEnvironmentMacro.addReNewEnvironment(args[1], args[2], args[3], opt.intValue());
+        NewEnvironmentMacro.addReNewEnvironment(tp, args[1], args[2], args[3], opt.intValue());
         return null;
     }
 
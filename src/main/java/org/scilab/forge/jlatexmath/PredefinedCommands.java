@@ -165,8 +165,8 @@ final class PredefinedCommands {
         MacroInfo.Commands.put("shoveright", new PredefMacroInfo(129, 1));
         MacroInfo.Commands.put("shoveleft", new PredefMacroInfo(130, 1));
         MacroInfo.Commands.put("\\", new PredefMacroInfo(131, 0));
-        MacroInfo.Commands.put("newenvironment", new PredefMacroInfo(132, 3));
-        MacroInfo.Commands.put("renewenvironment", new PredefMacroInfo(133, 3));
+        MacroInfo.Commands.put("newenvironment", new PredefMacroInfo(132, 3, 2));
+        MacroInfo.Commands.put("renewenvironment", new PredefMacroInfo(133, 3, 2));
         MacroInfo.Commands.put("makeatletter", new PredefMacroInfo(134, 0));
         MacroInfo.Commands.put("makeatother", new PredefMacroInfo(135, 0));
         MacroInfo.Commands.put("fbox", new PredefMacroInfo(136, 1));
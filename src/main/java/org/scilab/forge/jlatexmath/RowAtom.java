@@ -233,6 +233,13 @@ public class RowAtom extends Atom implements Row {
 	return hBox;
     }
 
+    public Atom clone() {
+        RowAtom at = (RowAtom) super.clone();
+        at.elements = new LinkedList<Atom>(elements);
+        at.previousAtom = null;
+        return at;
+    }
+
     public void setPreviousAtom(Dummy prev) {
         previousAtom = prev;
     }
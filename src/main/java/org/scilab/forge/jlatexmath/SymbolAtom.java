@@ -32,6 +32,7 @@
 package org.scilab.forge.jlatexmath;
 
 import java.util.BitSet;
+import java.util.HashMap;
 import java.util.Map;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -49,7 +50,7 @@ public class SymbolAtom extends CharSymbol {
     private final String name;
     
     // contains all defined symbols
-    public static Map<String, SymbolAtom> symbols;
+    public static volatile Map<String, SymbolAtom> symbols;
     
     // contains all the possible valid symbol types
     private static BitSet validSymbolTypes;
@@ -57,7 +58,8 @@ public class SymbolAtom extends CharSymbol {
     private char unicode;
     
     static {
-        symbols = new TeXSymbolParser().readSymbols();
+        FontBundle bundle = FontBundle.getInstance();
+        symbols = bundle != null ? bundle.readSymbols() : new TeXSymbolParser().readSymbols();
         
         // set valid symbol types
         validSymbolTypes =  new BitSet(16);
@@ -122,11 +124,21 @@ public class SymbolAtom extends CharSymbol {
 
     public static void addSymbolAtom(InputStream in, String name) {
 	TeXSymbolParser tsp = new TeXSymbolParser(in, name);
-	symbols.putAll(tsp.readSymbols());
+	Map<String, SymbolAtom> syms = tsp.readSymbols();
+	synchronized (SymbolAtom.class) {
+	    // the map is replaced, so the threads which are reading it are not disturbed
+	    Map<String, SymbolAtom> map = new HashMap<String, SymbolAtom>(symbols);
+	    map.putAll(syms);
+	    symbols = map;
+	}
+	CommandTable.invalidate();
     }
 
-    public static void addSymbolAtom(SymbolAtom sym) {
-	symbols.put(sym.name, sym);
+    public static synchronized void addSymbolAtom(SymbolAtom sym) {
+	Map<String, SymbolAtom> map = new HashMap<String, SymbolAtom>(symbols);
+	map.put(sym.name, sym);
+	symbols = map;
+	CommandTable.invalidate();
     }
     
     /**
@@ -164,7 +176,7 @@ public class SymbolAtom extends CharSymbol {
 	Box cb = new CharBox(c);
 	if (env.getSmallCap() && unicode != 0 && Character.isLowerCase(unicode)) {
 	    try {
-		cb = new ScaleBox(new CharBox(tf.getChar(TeXFormula.symbolTextMappings[Character.toUpperCase(unicode)], style)), 0.8, 0.8);
+		cb = new ScaleBox(new CharBox(tf.getChar(TeXFormula.symbolTextMappings.get(Character.toUpperCase(unicode)), style)), 0.8, 0.8);
 	    } catch (SymbolMappingNotFoundException e) { }
 	}
 
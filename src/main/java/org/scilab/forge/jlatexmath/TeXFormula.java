@@ -38,6 +38,7 @@ import java.util.List;
 import java.util.LinkedList;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 import java.io.InputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -117,13 +118,14 @@ public class TeXFormula {
     protected static final float PREC = 0.0000001f;
 
     // predefined TeXFormula's
-    public static Map<String, TeXFormula> predefinedTeXFormulas = new HashMap<String, TeXFormula>(150);
+    // the predefined formulas are compiled from predefinedTeXFormulasAsString when they are used for the first time
+    public static Map<String, TeXFormula> predefinedTeXFormulas = new ConcurrentHashMap<String, TeXFormula>(150);
     public static Map<String, String> predefinedTeXFormulasAsString = new HashMap<String, String>(150);
 
     // character-to-symbol and character-to-delimiter mappings
-    public static String[] symbolMappings = new String[65536];
-    public static String[] symbolTextMappings = new String[65536];
-    public static String[] symbolFormulaMappings = new String[65536];
+    public static CharTable symbolMappings = new CharTable();
+    public static CharTable symbolTextMappings = new CharTable();
+    public static CharTable symbolFormulaMappings = new CharTable();
     public static Map<Character.UnicodeBlock, FontInfos> externalFontMap = new HashMap<Character.UnicodeBlock, FontInfos>();
 
     public List<MiddleAtom> middle = new LinkedList<MiddleAtom>();
@@ -133,19 +135,27 @@ public class TeXFormula {
 
     static {
         // character-to-symbol and character-to-delimiter mappings
-        TeXFormulaSettingsParser parser = new TeXFormulaSettingsParser();
-        parser.parseSymbolMappings(symbolMappings, symbolTextMappings);
+        FontBundle bundle = FontBundle.getInstance();
+        TeXFormulaSettingsParser parser = bundle != null ? null : new TeXFormulaSettingsParser();
+        if (bundle != null) {
+            bundle.readCharacterToSymbolMappings(symbolMappings, symbolTextMappings);
+        } else {
+            parser.parseSymbolMappings(symbolMappings, symbolTextMappings);
+        }
 
         new PredefinedCommands();
         new PredefinedTeXFormulas();
         new PredefMacros();
 
-        parser.parseSymbolToFormulaMappings(symbolFormulaMappings, symbolTextMappings);
+        if (bundle != null) {
+            bundle.readCharacterToFormulaMappings(symbolFormulaMappings, symbolTextMappings);
+        } else {
+            parser.parseSymbolToFormulaMappings(symbolFormulaMappings, symbolTextMappings);
+        }
 
-        try {
-            DefaultTeXFont.registerAlphabet((AlphabetRegistration) Class.forName("org.scilab.forge.jlatexmath.cyrillic.CyrillicRegistration").newInstance());
-            DefaultTeXFont.registerAlphabet((AlphabetRegistration) Class.forName("org.scilab.forge.jlatexmath.greek.GreekRegistration").newInstance());
-        } catch (Exception e) { }
+        // the alphabets are loaded when one of their characters is used
+        LazyAlphabetRegistration.register("org.scilab.forge.jlatexmath.cyrillic.CyrillicRegistration", AlphabetRegistration.JLM_CYRILLIC);
+        LazyAlphabetRegistration.register("org.scilab.forge.jlatexmath.greek.GreekRegistration", AlphabetRegistration.JLM_GREEK);
 
         //setDefaultDPI();
     }
@@ -174,6 +184,7 @@ public class TeXFormula {
         externalFontMap.put(block, new FontInfos(sansserif, serif));
         if (block.equals(Character.UnicodeBlock.BASIC_LATIN)) {
             predefinedTeXFormulas.clear();
+            CommandTable.invalidate();
         }
     }
 
@@ -206,12 +217,16 @@ public class TeXFormula {
 
     public boolean isColored = false;
 
+    // the source of the formula, and its groups once it has been edited (see edit)
+    private String source;
+    private boolean partial;
+    private ParsedGroups groups;
+
     /**
      * Creates an empty TeXFormula.
      *
      */
     public TeXFormula() {
-        parser = new TeXParser("", this, false);
     }
 
     /**
@@ -223,8 +238,7 @@ public class TeXFormula {
     public TeXFormula(String s, Map<String, String> map) throws ParseException {
         this.jlmXMLMap = map;
         this.textStyle = textStyle;
-        parser = new TeXParser(s, this);
-        parser.parse();
+        parse(false, s, true, true);
     }
 
     /**
@@ -239,8 +253,7 @@ public class TeXFormula {
 
     public TeXFormula(String s, boolean firstpass) throws ParseException {
         this.textStyle = null;
-        parser = new TeXParser(s, this, firstpass);
-        parser.parse();
+        parse(false, s, firstpass, true);
     }
 
     /*
@@ -249,14 +262,28 @@ public class TeXFormula {
      */
     public TeXFormula(String s, String textStyle) throws ParseException {
         this.textStyle = textStyle;
-        parser = new TeXParser(s, this);
-        parser.parse();
+        parse(false, s, true, true);
     }
 
     public TeXFormula(String s, String textStyle, boolean firstpass, boolean space) throws ParseException {
         this.textStyle = textStyle;
-        parser = new TeXParser(s, this, firstpass, space);
-        parser.parse();
+        parse(false, s, firstpass, space);
+    }
+
+    /*
+     * Parses a string with a parser reused by the thread.
+     */
+    private void parse(boolean isPartial, String s, boolean firstpass, boolean space) throws ParseException {
+        // the source of an appended string is not the one of the whole formula
+        source = root == null && firstpass && space ? s : null;
+        partial = isPartial;
+        groups = null;
+        TeXParser tp = TeXParser.obtain(isPartial, s, this, firstpass, space);
+        try {
+            tp.parse();
+        } finally {
+            tp.release();
+        }
     }
 
     /**
@@ -278,7 +305,6 @@ public class TeXFormula {
      */
     protected TeXFormula(TeXParser tp) {
         this.jlmXMLMap = tp.formula.jlmXMLMap;
-        parser = new TeXParser(tp.getIsPartial(), "", this, false);
     }
 
     /**
@@ -294,15 +320,7 @@ public class TeXFormula {
     protected TeXFormula(TeXParser tp, String s, boolean firstpass) throws ParseException {
         this.textStyle = null;
         this.jlmXMLMap = tp.formula.jlmXMLMap;
-        boolean isPartial = tp.getIsPartial();
-        parser = new TeXParser(isPartial, s, this, firstpass);
-        if (isPartial) {
-            try {
-                parser.parse();
-            } catch (Exception e) { }
-        } else {
-            parser.parse();
-        }
+        parse(tp, s, firstpass, true, false);
     }
 
     /*
@@ -312,36 +330,39 @@ public class TeXFormula {
     protected TeXFormula(TeXParser tp, String s, String textStyle) throws ParseException {
         this.textStyle = textStyle;
         this.jlmXMLMap = tp.formula.jlmXMLMap;
-        boolean isPartial = tp.getIsPartial();
-        parser = new TeXParser(isPartial, s, this);
-        if (isPartial) {
-            try {
-                parser.parse();
-            } catch (Exception e) {
-                if (root == null) {
-                    root = new EmptyAtom();
-                }
-            }
-        } else {
-            parser.parse();
-        }
+        parse(tp, s, true, true, true);
     }
 
     protected TeXFormula(TeXParser tp, String s, String textStyle, boolean firstpass, boolean space) throws ParseException {
         this.textStyle = textStyle;
         this.jlmXMLMap = tp.formula.jlmXMLMap;
+        parse(tp, s, firstpass, space, true);
+    }
+
+    /*
+     * Parses a string got by the parser of the enclosing formula, in place when it
+     * is one of its groups. In partial mode, the errors are ignored and the root is
+     * set to an EmptyAtom if nothing was parsed and emptyRoot is true.
+     */
+    private void parse(TeXParser tp, String s, boolean firstpass, boolean space, boolean emptyRoot) throws ParseException {
         boolean isPartial = tp.getIsPartial();
-        parser = new TeXParser(isPartial, s, this, firstpass, space);
-        if (isPartial) {
-            try {
+        int group = tp.findGroup(s, firstpass);
+        if (group == -1) {
+            parser = new TeXParser(tp, s, this, firstpass, space);
+        }
+        try {
+            if (group == -1) {
                 parser.parse();
-            } catch (Exception e) {
-                if (root == null) {
-                    root = new EmptyAtom();
-                }
+            } else {
+                tp.parseGroup(group, this, space, false);
+            }
+        } catch (RuntimeException e) {
+            if (!isPartial) {
+                throw e;
+            }
+            if (emptyRoot && root == null) {
+                root = new EmptyAtom();
             }
-        } else {
-            parser.parse();
         }
     }
 
@@ -375,13 +396,69 @@ public class TeXFormula {
             f.add(new EmptyAtom());
             return f;
         }
-        TeXParser parser = new TeXParser(true, formula, f);
+        f.source = formula;
+        f.partial = true;
+        TeXParser parser = TeXParser.obtain(true, formula, f, true, true);
         try {
             parser.parse();
         } catch (Exception e) {
             if (f.root == null) {
                 f.root = new EmptyAtom();
             }
+        } finally {
+            parser.release();
+        }
+
+        return f;
+    }
+
+    /**
+     * Creates the formula of the source of this formula where the text between start
+     * and end is replaced by the given text, as a live preview of an editor would do at
+     * each keystroke. After a first edit, the groups which are not changed by the next
+     * edit are not parsed again: their atoms are reused by the new formula, so the time
+     * of an edit depends on the size of the edited group rather than on the size of the
+     * whole formula.
+     * <p>
+     * This formula is not modified, but the new one shares some atoms with it: a
+     * formula should not be edited once it has been modified.
+     *
+     * @param start the start of the replaced text in the source
+     * @param end the end of the replaced text
+     * @param text the new text
+     * @return the new formula
+     * @throws ParseException if the new source could not be parsed correctly (and the
+     * formula is not partial, see getPartialTeXFormula)
+     * @throws IllegalStateException if the formula was not parsed from a string
+     */
+    public TeXFormula edit(int start, int end, String text) throws ParseException {
+        if (source == null) {
+            throw new IllegalStateException("The formula has not been parsed from a string");
+        }
+
+        String s = source.substring(0, start) + text + source.substring(end);
+        TeXFormula f = new TeXFormula();
+        f.textStyle = textStyle;
+        f.jlmXMLMap = jlmXMLMap;
+        f.source = s;
+        f.partial = partial;
+        f.groups = new ParsedGroups();
+        TeXParser tp = TeXParser.obtain(partial, s, f, true, true);
+        tp.setParsedGroups(f.groups, groups == null ? null : groups.edited(start, end, text.length()));
+        try {
+            if (partial) {
+                try {
+                    tp.parse();
+                } catch (Exception e) {
+                    if (f.root == null) {
+                        f.root = new EmptyAtom();
+                    }
+                }
+            } else {
+                tp.parse();
+            }
+        } finally {
+            tp.release();
         }
 
         return f;
@@ -401,6 +478,12 @@ public class TeXFormula {
      * @param ltx the latex formula
      */
     public void setLaTeX(String ltx) throws ParseException {
+        if (parser == null) {
+            // the formula was parsed in place in the string of another one
+            parser = new TeXParser("", this, false);
+        }
+        source = ltx;
+        groups = null;
         parser.reset(ltx);
         if (ltx != null && ltx.length() != 0)
             parser.parse();
@@ -449,8 +532,7 @@ public class TeXFormula {
 
     public TeXFormula append(boolean isPartial, String s) throws ParseException {
         if (s != null && s.length() != 0) {
-            TeXParser tp = new TeXParser(isPartial, s, this);
-            tp.parse();
+            parse(isPartial, s, true, true);
         }
         return this;
     }
@@ -500,10 +582,12 @@ public class TeXFormula {
 
     public static void addPredefinedTeXFormula(InputStream xmlFile) throws ResourceParseException {
         new PredefinedTeXFormulaParser(xmlFile, "TeXFormula").parse(predefinedTeXFormulas);
+        CommandTable.invalidate();
     }
 
     public static void addPredefinedCommands(InputStream xmlFile) throws ResourceParseException {
         new PredefinedTeXFormulaParser(xmlFile, "Command").parse(MacroInfo.Commands);
+        CommandTable.invalidate();
     }
 
     /**
@@ -829,18 +913,53 @@ public class TeXFormula {
      *                  given name
      */
     public static TeXFormula get(String name) throws FormulaNotFoundException {
+        return new TeXFormula(getPredefined(name));
+    }
+
+    /**
+     * Get the root of a predefined TeXFormula. The atoms of a predefined formula are
+     * shared by all the formulas using it, so they must not be modified.
+     *
+     * @param name the name of the predefined TeXFormula
+     * @return the root atom
+     * @throws FormulaNotFoundException if no predefined TeXFormula is found with the
+     *                  given name
+     */
+    static Atom getPredefinedAtom(String name) throws FormulaNotFoundException {
+        return getPredefined(name).getSharedRoot();
+    }
+
+    /**
+     * @return the root of this predefined formula to insert in another formula
+     */
+    Atom getSharedRoot() {
+        // a row keeps some state while its box is created, so it is not shared
+        return root instanceof RowAtom ? new RowAtom(root) : root;
+    }
+
+    private static TeXFormula getPredefined(String name) throws FormulaNotFoundException {
+        TeXFormula formula = findPredefined(name);
+        if (formula == null) {
+            throw new FormulaNotFoundException(name);
+        }
+        return formula;
+    }
+
+    /**
+     * @return the compiled predefined formula or null if there is no such formula
+     */
+    static TeXFormula findPredefined(String name) {
         TeXFormula formula = predefinedTeXFormulas.get(name);
         if (formula == null) {
             String f = predefinedTeXFormulasAsString.get(name);
             if (f == null) {
-                throw new FormulaNotFoundException(name);
+                return null;
             }
-            TeXFormula tf = new TeXFormula(f);
-            predefinedTeXFormulas.put(name, tf);
-            return tf;
-        } else {
-            return new TeXFormula(formula);
+            // two threads may compile the same formula, they get equivalent formulas
+            formula = new TeXFormula(f);
+            predefinedTeXFormulas.put(name, formula);
         }
+        return formula;
     }
 
     static class FontInfos {
@@ -217,6 +217,13 @@ public class TeXIcon implements Icon {
 	return box;
     }
 
+    /**
+     * @return the point size used to paint the box
+     */
+    public float getSize() {
+        return size;
+    }
+
     /**
      * Paint the {@link TeXFormula} that created this icon.
      */
@@ -0,0 +1,316 @@
+/* TeXNormalizer.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+
+package org.scilab.forge.jlatexmath;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A canonical form of a formula, which is the same for the formulas parsed in the
+ * same way, so it can be used as the key of a cache. The comments are removed, the
+ * line endings are replaced by '\n', the spaces are removed where they are ignored
+ * by the parser (in math mode, except after a command name followed by a letter and
+ * before a script, which is not joined to the previous one) and the braces around a
+ * script made of a single letter or digit are removed.
+ * <p>
+ * The commands are resolved like the parser does (see CommandTable): the symbols and
+ * the predefined formulas take no arguments, and a formula with a command unknown to
+ * the parser is not normalized. Only the parts of a formula which are known to be in
+ * math mode are changed: the arguments of the commands which are not listed below as
+ * predefined math commands (text, colors, lengths...) are kept as they are, and a
+ * formula with definitions, with '$' or with an unknown environment is only changed
+ * for its line endings.
+ */
+public final class TeXNormalizer {
+
+    // the predefined commands whose arguments are parsed in math mode, so they are
+    // normalized (the parser doesn't tell how a command reads its arguments)
+    private static final Set<String> mathCommands = new HashSet<String>(Arrays.asList(
+        "frac", "cfrac", "sqrt", "binom",
+        "overline", "underline", "widehat", "widetilde", "hat", "bar", "vec", "tilde",
+        "dot", "ddot", "check", "breve", "acute", "grave", "overbrace", "underbrace",
+        "overrightarrow", "overleftarrow", "mathbf", "mathit", "mathrm", "mathsf",
+        "mathtt", "mathcal", "mathbb", "mathfrak", "boldsymbol", "stackrel", "overset",
+        "underset", "left", "middle", "big", "Big", "bigg", "Bigg", "bigl",
+        "bigr", "Bigl", "Bigr", "biggl", "biggr", "Biggl", "Biggr"));
+
+    // the environments whose content is parsed in math mode
+    private static final Set<String> mathEnvironments = new HashSet<String>(Arrays.asList(
+        "array", "matrix", "pmatrix", "bmatrix", "Bmatrix", "vmatrix", "Vmatrix",
+        "smallmatrix", "cases", "align", "align*", "aligned", "gather", "gather*",
+        "gathered", "split", "multline", "multline*", "eqnarray", "eqnarray*"));
+
+    // besides the definitions, the commands which change the way the formula is
+    // read ('@' in the names) or which read the text after them as it is (a length)
+    private static final Set<String> unsafeCommands = new HashSet<String>(Arrays.asList(
+        "makeatletter", "makeatother", "above", "abovewithdelims"));
+
+    private final String s;
+    private final GapBuffer text;
+    private final int len;
+    private final StringBuilder buf;
+    private int pos;
+
+    private TeXNormalizer(String s) {
+        this.s = s;
+        this.text = new GapBuffer(s);
+        this.len = s.length();
+        this.buf = new StringBuilder(len);
+    }
+
+    /**
+     * @param latex a formula
+     * @return the canonical form of the formula
+     */
+    public static String normalize(String latex) {
+        String s = latex.indexOf('\r') == -1 ? latex : latex.replace("\r\n", "\n").replace('\r', '\n');
+        TeXNormalizer n = new TeXNormalizer(s);
+
+        return n.math(false) ? n.buf.toString() : s;
+    }
+
+    /*
+     * Copy the formula in math mode up to the end of the current group.
+     * Return false if the formula cannot be normalized.
+     */
+    private boolean math(boolean inGroup) {
+        // true after a command name, which is ended by a space before a letter
+        boolean word = false;
+        while (pos < len) {
+            char c = s.charAt(pos);
+            switch (c) {
+            case ' ' :
+            case '\t' :
+            case '\n' :
+            case '%' :
+                // the comments are removed by the parser, so they are skipped with the spaces
+                boolean space = false;
+                while (pos < len) {
+                    char d = s.charAt(pos);
+                    if (d == '%') {
+                        while (pos < len && s.charAt(pos) != '\n') {
+                            pos++;
+                        }
+                    } else if (isSpace(d)) {
+                        space = true;
+                        pos++;
+                    } else {
+                        break;
+                    }
+                }
+                if (pos < len && ((word && isLetter(s.charAt(pos))) || (space && (s.charAt(pos) == '^' || s.charAt(pos) == '_')))) {
+                    buf.append(' ');
+                }
+                word = false;
+                break;
+            case '\\' :
+                if (!command()) {
+                    return false;
+                }
+                word = isLetter(s.charAt(pos - 1));
+                break;
+            case '{' :
+                buf.append(c);
+                pos++;
+                if (!math(true)) {
+                    return false;
+                }
+                word = false;
+                break;
+            case '}' :
+                if (!inGroup) {
+                    return false;
+                }
+                buf.append(c);
+                pos++;
+                return true;
+            case '^' :
+            case '_' :
+                buf.append(c);
+                pos++;
+                while (pos < len && isSpace(s.charAt(pos))) {
+                    pos++;
+                }
+                if (!script()) {
+                    return false;
+                }
+                word = false;
+                break;
+            case '$' :
+            case '#' :
+                return false;
+            default :
+                buf.append(c);
+                pos++;
+                word = false;
+            }
+        }
+
+        return !inGroup;
+    }
+
+    /*
+     * Copy a command, with its arguments when they are not in math mode.
+     */
+    private boolean command() {
+        int start = pos++;
+        while (pos < len && isLetter(s.charAt(pos))) {
+            pos++;
+        }
+        if (pos == start + 1) {
+            // a command made of one character
+            if (pos < len) {
+                pos++;
+            }
+            buf.append(s, start, pos);
+            return arguments();
+        }
+
+        String name = s.substring(start + 1, pos);
+        if (TeXParser.isDefinition(name) || unsafeCommands.contains(name)) {
+            return false;
+        }
+        buf.append(s, start, pos);
+        if (name.equals("begin") || name.equals("end")) {
+            int end = s.indexOf('}', pos);
+            if (pos == len || s.charAt(pos) != '{' || end == -1 || !mathEnvironments.contains(s.substring(pos + 1, end))) {
+                return false;
+            }
+            buf.append(s, pos, end + 1);
+            pos = end + 1;
+            // the columns of an array
+            return !name.equals("begin") || arguments();
+        }
+
+        if (name.equals("right")) {
+            // read by the parser with its \left
+            return true;
+        }
+
+        CommandTable.Entry entry = CommandTable.get(text, start + 1, pos);
+        if (entry == null) {
+            return false;
+        }
+        if (!(entry.command instanceof MacroInfo)) {
+            // a symbol or a predefined formula
+            return true;
+        }
+
+        return (entry.command instanceof PredefMacroInfo && mathCommands.contains(name)) || arguments();
+    }
+
+    /*
+     * Copy the arguments of a command which are not in math mode, as they are.
+     */
+    private boolean arguments() {
+        int start = pos;
+        while (true) {
+            while (pos < len && (isSpace(s.charAt(pos)) || s.charAt(pos) == '%')) {
+                if (s.charAt(pos) == '%') {
+                    while (pos < len && s.charAt(pos) != '\n') {
+                        pos++;
+                    }
+                } else {
+                    pos++;
+                }
+            }
+            if (pos == len || (s.charAt(pos) != '{' && s.charAt(pos) != '[')) {
+                break;
+            }
+            if (!skipGroup()) {
+                return false;
+            }
+            buf.append(s, start, pos);
+            start = pos;
+        }
+        pos = start;
+
+        return true;
+    }
+
+    /*
+     * Skip a group between braces or brackets (or return false if it is not closed).
+     */
+    private boolean skipGroup() {
+        char open = s.charAt(pos), close = open == '{' ? '}' : ']';
+        int depth = 0;
+        while (pos < len) {
+            char c = s.charAt(pos++);
+            if (c == '\\') {
+                pos++;
+            } else if (c == '%') {
+                // the comments are removed by the parser
+                while (pos < len && s.charAt(pos) != '\n') {
+                    pos++;
+                }
+            } else if (c == open) {
+                depth++;
+            } else if (c == close && --depth == 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     * Copy a script, without braces if it is a single letter or digit.
+     */
+    private boolean script() {
+        if (pos == len || s.charAt(pos) != '{') {
+            return true;
+        }
+
+        int start = buf.length();
+        buf.append('{');
+        pos++;
+        if (!math(true)) {
+            return false;
+        }
+        if (buf.length() == start + 3 && isAlphanumeric(buf.charAt(start + 1))) {
+            buf.setCharAt(start, buf.charAt(start + 1));
+            buf.setLength(start + 1);
+        }
+
+        return true;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n';
+    }
+
+    // the letters of the command names
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isAlphanumeric(char c) {
+        return isLetter(c) || (c >= '0' && c <= '9');
+    }
+}
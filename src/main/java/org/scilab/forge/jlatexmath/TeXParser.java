@@ -33,6 +33,7 @@ import java.awt.Font;
 import java.lang.Character.UnicodeBlock;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * This class implements a parser for LaTeX' formulas.
@@ -41,7 +42,7 @@ public class TeXParser {
 
     TeXFormula formula;
 
-    private StringBuffer parseString;
+    private GapBuffer parseString;
     private int pos;
     private int spos;
     private int line;
@@ -54,6 +55,37 @@ public class TeXParser {
     private boolean ignoreWhiteSpace = true;
     private boolean isPartial;
     private boolean autoNumberBreaking;
+    // true if the user-defined macros have been replaced in the whole parsed string
+    private boolean expanded;
+
+    // the groups returned to the commands with their ranges in parseString, so they
+    // can be parsed in place (see parseGroup)
+    private String[] groups;
+    private int[] groupRanges;
+    private int groupCount;
+    // the position of the matching '}' of each '{' of the expanded string (or -1),
+    // computed on demand
+    private int[] braces;
+    private boolean bracesDone;
+    // the commands already resolved, by position of their backslash, so the ones
+    // resolved by firstpass are not resolved again by parse
+    private CommandTable.Entry[] commands;
+    private int commandsGeneration;
+    // the commands defined in the formula, shared with the parsers of its parts
+    private MacroScope scope;
+    // the groups parsed in the formula, and the ones parsed in its source before an
+    // edit, which are reused when they have not been changed (see TeXFormula.edit)
+    private ParsedGroups parsed;
+    private ParsedGroups previous;
+    // the number of changes of the formula by the commands (see getCommandAtom)
+    private int changes;
+
+    // a few parsers kept for the next formulas (see obtain); not a ThreadLocal, which
+    // would keep the class (and its class loader) reachable from each thread
+    private static final int FREE_PARSERS = 4;
+    private static final AtomicReferenceArray<TeXParser> free = new AtomicReferenceArray<TeXParser>(FREE_PARSERS);
+    // a larger string is not kept by a free parser
+    private static final int MAX_FREE_CAPACITY = 4096;
 
     // the escape character
     private static final char ESCAPE = '\\';
@@ -111,8 +143,6 @@ public class TeXParser {
     private static final char SUBLPAR = '\u208D';
     private static final char SUBRPAR = '\u208E';
 
-    protected static boolean isLoading = false;
-
     private static final Set<String> unparsedContents = new HashSet<String>(6);
     static {
         unparsedContents.add("jlmDynamic");
@@ -157,10 +187,15 @@ public class TeXParser {
      * @throws ParseException if the string could not be parsed correctly
      */
     public TeXParser(boolean isPartial, String parseString, TeXFormula formula, boolean firstpass) {
+        this(null, isPartial, parseString, formula, firstpass);
+    }
+
+    private TeXParser(MacroScope scope, boolean isPartial, String parseString, TeXFormula formula, boolean firstpass) {
+        this.scope = scope;
         this.formula = formula;
         this.isPartial = isPartial;
         if (parseString != null) {
-            this.parseString = new StringBuffer(parseString);
+            this.parseString = new GapBuffer(parseString);
             this.len = parseString.length();
             this.pos = 0;
             if (firstpass) {
@@ -237,13 +272,40 @@ public class TeXParser {
         this.ignoreWhiteSpace = space;
     }
 
+    /**
+     * Create a new TeXParser for a part of the formula parsed by parent, where the
+     * commands defined in the formula are known.
+     */
+    TeXParser(TeXParser parent, String parseString, TeXFormula formula, boolean firstpass, boolean space) {
+        this(parent.getScope(), parent.isPartial, parseString, formula, firstpass);
+        this.ignoreWhiteSpace = space;
+    }
+
+    /**
+     * Create a new TeXParser for a part of the formula parsed by parent, in the context
+     * of an array.
+     */
+    TeXParser(TeXParser parent, String parseString, ArrayOfAtoms aoa) {
+        this(parent.getScope(), parent.isPartial, parseString, aoa, false);
+        arrayMode = true;
+    }
+
     /**
      * Reset the parser with a new latex expression
      */
     public void reset(String latex) {
-        parseString = new StringBuffer(latex);
-        len = parseString.length();
+        restart(latex);
         formula.root = null;
+        firstpass();
+    }
+
+    private void restart(String latex) {
+        if (parseString == null) {
+            parseString = new GapBuffer(latex);
+        } else {
+            parseString.reset(latex);
+        }
+        len = parseString.length();
         pos = 0;
         spos = 0;
         line = 0;
@@ -253,7 +315,57 @@ public class TeXParser {
         atIsLetter = 0;
         arrayMode = false;
         ignoreWhiteSpace = true;
-        firstpass();
+        expanded = false;
+        bracesDone = false;
+        scope = null;
+        clearGroups(0);
+    }
+
+    /**
+     * Get a parser for a formula (with a first pass if needed): a free parser when there
+     * is one, so its arrays are reused, otherwise a new parser. The parser must be
+     * released when the formula has been parsed.
+     */
+    static TeXParser obtain(boolean isPartial, String parseString, TeXFormula formula, boolean firstpass, boolean space) {
+        // the parser is in use until it is released, so a formula parsed by a command
+        // gets another one
+        TeXParser tp = null;
+        for (int i = 0; i < FREE_PARSERS && tp == null; i++) {
+            tp = free.getAndSet(i, null);
+        }
+        if (tp == null) {
+            return new TeXParser(isPartial, parseString, formula, firstpass, space);
+        }
+
+        tp.formula = formula;
+        tp.isPartial = isPartial;
+        tp.restart(parseString);
+        if (firstpass) {
+            tp.firstpass();
+        }
+        tp.ignoreWhiteSpace = space;
+
+        return tp;
+    }
+
+    /**
+     * Give back a parser got with obtain.
+     */
+    void release() {
+        if (parseString == null || parseString.capacity() > MAX_FREE_CAPACITY) {
+            return;
+        }
+
+        formula = null;
+        scope = null;
+        parsed = null;
+        previous = null;
+        clearGroups(0);
+        for (int i = 0; i < FREE_PARSERS; i++) {
+            if (free.get(i) == null && free.compareAndSet(i, null, this)) {
+                return;
+            }
+        }
     }
 
     /** Return true if we get a partial formula
@@ -277,6 +389,7 @@ public class TeXParser {
     /** Get the last atom of the current formula
      */
     public Atom getLastAtom() {
+        changes++;
         Atom at = formula.root;
         if (at instanceof RowAtom)
             return ((RowAtom)at).getLastAtom();
@@ -287,6 +400,7 @@ public class TeXParser {
     /** Get the atom represented by the current formula
      */
     public Atom getFormulaAtom() {
+        changes++;
         Atom at = formula.root;
         formula.root = null;
         return at;
@@ -295,6 +409,7 @@ public class TeXParser {
     /** Put an atom in the current formula
      */
     public void addAtom(Atom at) {
+        changes++;
         formula.add(at);
     }
 
@@ -354,11 +469,12 @@ public class TeXParser {
     }
 
     public String getStringFromCurrentPos() {
-        return parseString.substring(pos);
+        return parseString.substring(pos, len);
     }
 
     public void finish() {
-        pos = parseString.length();
+        changes++;
+        pos = len;
     }
 
     /** Add a new row when the parser is in array mode
@@ -371,6 +487,7 @@ public class TeXParser {
     }
 
     private void firstpass() throws ParseException {
+        expanded = false;
         if (len != 0) {
             char ch;
             String com;
@@ -383,9 +500,11 @@ public class TeXParser {
                 case ESCAPE :
                     spos = pos;
                     com = getCommand();
-                    if ("newcommand".equals(com) || "renewcommand".equals(com)) {
-                        args = getOptsArgs(2, 2);
+                    if (isDefinition(com)) {
+                        // the definitions are only known in the formula, so they are
+                        // made before the commands are expanded
                         mac = MacroInfo.Commands.get(com);
+                        args = getOptsArgs(mac.nbArgs, mac.hasOptions ? mac.posOpts : 0);
                         try {
                             mac.invoke(this, args);
                         } catch (ParseException e) {
@@ -396,8 +515,7 @@ public class TeXParser {
                         parseString.delete(spos, pos);
                         len = parseString.length();
                         pos = spos;
-                    } else if (NewCommandMacro.isMacro(com)) {
-                        mac = MacroInfo.Commands.get(com);
+                    } else if ((mac = getMacro(com)) instanceof MacroTemplate) {
                         args = getOptsArgs(mac.nbArgs, mac.hasOptions ? 1 : 0);
                         args[0] = com;
                         try {
@@ -413,7 +531,7 @@ public class TeXParser {
                         pos = spos;
                     } else if ("begin".equals(com)) {
                         args = getOptsArgs(1, 0);
-                        mac = MacroInfo.Commands.get(args[1] + "@env");
+                        mac = getMacro(args[1] + "@env");
                         if (mac == null) {
                             if (!isPartial) {
                                 throw new ParseException("Unknown environment: " + args[1] + " at position " + getLine() + ":" + getCol());
@@ -625,7 +743,11 @@ public class TeXParser {
             }
             pos = 0;
             len = parseString.length();
+            // the groups got by the commands above are out of date
+            clearGroups(0);
         }
+        expanded = true;
+        bracesDone = false;
     }
 
     /** Parse the input string
@@ -662,22 +784,24 @@ public class TeXParser {
                     if (!ignoreWhiteSpace) {// We are in a mbox
                         int style = TeXConstants.STYLE_TEXT;
                         boolean doubleDollar = false;
-                        if (parseString.charAt(pos) == DOLLAR) {
+                        if (pos < len && parseString.charAt(pos) == DOLLAR) {
                             style = TeXConstants.STYLE_DISPLAY;
                             doubleDollar = true;
                             pos++;
                         }
 
+                        int mark = groupCount;
                         formula.add(new MathAtom(new TeXFormula(this, getDollarGroup(DOLLAR), false).root, style));
+                        clearGroups(mark);
                         if (doubleDollar) {
-                            if (parseString.charAt(pos) == DOLLAR) {
+                            if (pos < len && parseString.charAt(pos) == DOLLAR) {
                                 pos++;
                             }
                         }
                     }
                     break;
                 case ESCAPE :
-                    Atom at = processEscape();
+                    Atom at = getCommandAtom();
                     formula.add(at);
                     if (arrayMode && at instanceof HlineAtom) {
                         ((ArrayOfAtoms) formula).addRow();
@@ -814,6 +938,10 @@ public class TeXParser {
         int spos = pos;
         char ch;
 
+        if (pos >= len) {
+            return "";
+        }
+
         do {
             ch = parseString.charAt(pos++);
             if (ch == ESCAPE) {
@@ -822,9 +950,9 @@ public class TeXParser {
         } while (pos < len && ch != openclose);
 
         if (ch == openclose) {
-            return parseString.substring(spos, pos - 1);
+            return group(spos, pos - 1);
         } else {
-            return parseString.substring(spos, pos);
+            return group(spos, pos);
         }
     }
 
@@ -842,8 +970,16 @@ public class TeXParser {
         char ch = parseString.charAt(pos);
 
         if (pos < len && ch == open) {
-            group = 1;
             spos = pos;
+            if (open == L_GROUP && expanded) {
+                int end = getMatchingBrace(pos);
+                if (end != -1 && end < len) {
+                    pos = end + 1;
+                    return group(spos + 1, end);
+                }
+            }
+
+            group = 1;
             while (pos < len - 1 && group != 0) {
                 pos++;
                 ch = parseString.charAt(pos);
@@ -858,15 +994,51 @@ public class TeXParser {
             pos++;
 
             if (group != 0) {
-                return parseString.substring(spos + 1, pos);
+                return group(spos + 1, pos);
             }
 
-            return parseString.substring(spos + 1, pos - 1);
+            return group(spos + 1, pos - 1);
         } else {
             throw new ParseException("missing '" + open + "'!");
         }
     }
 
+    /**
+     * @return the position of the '}' matching the '{' at the given position or -1
+     */
+    private int getMatchingBrace(int open) {
+        if (!bracesDone) {
+            // one pass over the whole string instead of one per nesting level
+            int n = parseString.length();
+            if (braces == null || braces.length < n) {
+                braces = new int[n];
+            }
+            bracesDone = true;
+            int[] stack = new int[16];
+            int top = 0;
+            for (int i = 0; i < n; i++) {
+                char ch = parseString.charAt(i);
+                braces[i] = -1;
+                if (ch == L_GROUP) {
+                    if (top == stack.length) {
+                        int[] s = new int[2 * top];
+                        System.arraycopy(stack, 0, s, 0, top);
+                        stack = s;
+                    }
+                    stack[top++] = i;
+                } else if (ch == R_GROUP) {
+                    if (top != 0) {
+                        braces[stack[--top]] = i;
+                    }
+                } else if (ch == ESCAPE && i != n - 1) {
+                    braces[++i] = -1;
+                }
+            }
+        }
+
+        return braces[open];
+    }
+
     /** Get the contents between two strings as in \begin{foo}...\end{foo}
      * @param open the opening string
      * @param close the closing string
@@ -881,16 +1053,14 @@ public class TeXParser {
         int oc = 0, cc = 0;
         int startC = 0;
         char prev = '\0';
-        StringBuffer buf = new StringBuffer();
+        int spos = pos;
 
         while (pos < len && group != 0) {
             char c = parseString.charAt(pos);
             char c1;
 
             if (prev != ESCAPE && c == ' ') {//Trick to handle case where close == "\end   {foo}"
-                while (pos < len && parseString.charAt(pos++) == ' ') {
-                    buf.append(' ');
-                }
+                while (pos < len && parseString.charAt(pos++) == ' ') { }
                 c = parseString.charAt(--pos);
                 if (isValidCharacterInCommand(prev) && isValidCharacterInCommand(c)) {
                     oc = cc = 0;
@@ -938,18 +1108,17 @@ public class TeXParser {
             }
 
             prev = c;
-            buf.append(c);
             pos++;
         }
 
         if (group != 0) {
             if (isPartial) {
-                return buf.toString();
+                return group(spos, pos);
             }
             throw new ParseException("The token " + open + " must be closed by " + close);
         }
 
-        return buf.substring(0, buf.length() - pos + startC);
+        return group(spos, startC);
     }
 
     /** Get the argument of a command in his atomic format
@@ -965,19 +1134,38 @@ public class TeXParser {
             return new EmptyAtom();
         }
         if (ch == L_GROUP) {
-            TeXFormula tf = new TeXFormula();
-            TeXFormula sformula = this.formula;
-            this.formula = tf;
-            pos++;
-            group++;
-            parse();
-            this.formula = sformula;
+            Atom root;
+            int start = pos;
+            boolean record = isRecording();
+            boolean space = ignoreWhiteSpace;
+            int context = atIsLetter << 2 | (arrayMode ? 2 : 0) | (space ? 1 : 0);
+            int i = record && previous != null ? previous.find(ParsedGroups.ARGUMENT, start, -1, len, context, null) : -1;
+            if (i != -1) {
+                root = previous.getAtom(i);
+                parsed.addReused(previous, i);
+                pos = previous.getEnd(i);
+                atIsLetter = previous.getEndContext(i);
+                skipLines(previous.getLines(i), previous.getCol(i));
+            } else {
+                TeXFormula tf = new TeXFormula();
+                TeXFormula sformula = this.formula;
+                int sgroup = group, sline = line;
+                this.formula = tf;
+                pos++;
+                group++;
+                parse();
+                this.formula = sformula;
+                root = tf.root;
+                if (record && group == sgroup && ignoreWhiteSpace == space && isRecording()) {
+                    parsed.add(ParsedGroups.ARGUMENT, start, pos, pos, len, context, atIsLetter, line - sline, col, null, root);
+                }
+            }
             if (this.formula.root == null) {
                 RowAtom at = new RowAtom();
-                at.add(tf.root);
+                at.add(root);
                 return at;
             }
-            return tf.root;
+            return root;
         }
 
         if (ch == ESCAPE) {
@@ -1040,9 +1228,9 @@ public class TeXParser {
 
         String str;
         if (ogroup == 0) {
-            str = parseString.substring(spos, pos - 1);
+            str = group(spos, pos - 1);
         } else {
-            str = parseString.substring(spos, pos);
+            str = group(spos, pos);
             ch = '\0';
         }
 
@@ -1077,21 +1265,19 @@ public class TeXParser {
     public Atom convertCharacter(char c, boolean oneChar) throws ParseException {
         if (ignoreWhiteSpace) {// The Unicode Greek letters in math mode are not drawn with the Greek font
             if (c >= 945 && c <= 969) {
-                return SymbolAtom.get(TeXFormula.symbolMappings[c]);
+                return SymbolAtom.get(TeXFormula.symbolMappings.get(c));
             } else if (c >= 913 && c <= 937) {
-                return new TeXFormula(TeXFormula.symbolFormulaMappings[c]).root;
+                return new TeXFormula(TeXFormula.symbolFormulaMappings.get(c)).root;
             }
         }
 
         c = convertToRomanNumber(c);
         if (((c < '0' || c > '9') && (c < 'a' || c > 'z') && (c < 'A' || c > 'Z'))) {
             Character.UnicodeBlock block = Character.UnicodeBlock.of(c);
-            if (!isLoading && !DefaultTeXFont.loadedAlphabets.contains(block)) {
-                DefaultTeXFont.addAlphabet(DefaultTeXFont.registeredAlphabets.get(block));
-            }
+            DefaultTeXFont.loadAlphabet(block);
 
-            String symbolName = TeXFormula.symbolMappings[c];
-            if (symbolName == null && (TeXFormula.symbolFormulaMappings == null || TeXFormula.symbolFormulaMappings[c] == null)) {
+            String symbolName = TeXFormula.symbolMappings.get(c);
+            if (symbolName == null && (TeXFormula.symbolFormulaMappings == null || TeXFormula.symbolFormulaMappings.get(c) == null)) {
                 TeXFormula.FontInfos fontInfos = TeXFormula.externalFontMap.get(block);
                 if (fontInfos != null) {
                     if (oneChar) {
@@ -1118,12 +1304,12 @@ public class TeXParser {
                 }
             } else {
                 if (!ignoreWhiteSpace) {// we are in text mode
-                    if (TeXFormula.symbolTextMappings[c] != null) {
-                        return SymbolAtom.get(TeXFormula.symbolTextMappings[c]).setUnicode(c);
+                    if (TeXFormula.symbolTextMappings.get(c) != null) {
+                        return SymbolAtom.get(TeXFormula.symbolTextMappings.get(c)).setUnicode(c);
                     }
                 }
-                if (TeXFormula.symbolFormulaMappings != null && TeXFormula.symbolFormulaMappings[c] != null) {
-                    return new TeXFormula(TeXFormula.symbolFormulaMappings[c]).root;
+                if (TeXFormula.symbolFormulaMappings != null && TeXFormula.symbolFormulaMappings.get(c) != null) {
+                    return new TeXFormula(TeXFormula.symbolFormulaMappings.get(c)).root;
                 }
 
                 try {
@@ -1159,6 +1345,63 @@ public class TeXParser {
     }
 
     private String getCommand() {
+        int spos = pos;
+        if (!skipCommand()) {
+            return "";
+        }
+
+        CommandTable.Entry entry = getEntry(spos);
+        return entry != null ? entry.name : parseString.substring(spos + 1, pos);
+    }
+
+    /**
+     * @param spos the position of the backslash of the command which ends at pos
+     * @return the resolved command or null if it is unknown
+     */
+    private CommandTable.Entry getEntry(int spos) {
+        if (scope != null && !scope.isEmpty()) {
+            CommandTable.Entry entry = scope.get(parseString, spos + 1, pos);
+            if (entry != null) {
+                return entry;
+            }
+        }
+
+        int generation = CommandTable.getGeneration();
+        CommandTable.Entry[] c = commands;
+        if (c != null) {
+            if (commandsGeneration != generation) {
+                c = commands = null;
+            } else if (spos < c.length) {
+                // the string may have been modified since, so the name is checked
+                CommandTable.Entry entry = c[spos];
+                if (entry != null && entry.chars.length == pos - spos - 1 && parseString.regionMatches(spos + 1, entry.chars)) {
+                    return entry;
+                }
+            }
+        }
+
+        CommandTable.Entry entry = CommandTable.get(parseString, spos + 1, pos);
+        if (entry != null) {
+            if (c == null || spos >= c.length) {
+                c = new CommandTable.Entry[Math.max(parseString.length(), spos + 1)];
+                if (commands != null) {
+                    System.arraycopy(commands, 0, c, 0, commands.length);
+                }
+                commands = c;
+                commandsGeneration = generation;
+            }
+            c[spos] = entry;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Skip the backslash and the name of a command.
+     *
+     * @return false if there is no name
+     */
+    private boolean skipCommand() {
         int spos = ++pos;
         char ch = '\0';
 
@@ -1171,34 +1414,64 @@ public class TeXParser {
         }
 
         if (ch == '\0')
-            return "";
+            return false;
 
         if (pos == spos) {
             pos++;
         }
 
-        return parseString.substring(spos, pos);
+        return true;
     }
 
     private Atom processEscape() throws ParseException {
         spos = pos;
-        String command = getCommand();
-
-        if (command.length() == 0) {
+        if (!skipCommand()) {
             return new EmptyAtom();
         }
 
-        if (MacroInfo.Commands.get(command) != null)
-            return processCommands(command);
+        // the known commands are recognized without creating a String
+        CommandTable.Entry entry = getEntry(spos);
+        if (entry == null) {
+            return unknownCommand(parseString.substring(spos + 1, pos));
+        }
 
-        try {
-            return TeXFormula.get(command).root;
-        } catch (FormulaNotFoundException e) {
-            try {
-                return SymbolAtom.get(command);
-            } catch (SymbolNotFoundException e1) { }
+        String command = entry.name;
+        Object cmd = entry.command;
+        if (cmd instanceof MacroInfo) {
+            return processCommands(command, (MacroInfo) cmd);
+        } else if (cmd instanceof TeXFormula) {
+            return ((TeXFormula) cmd).getSharedRoot();
         }
 
+        return (SymbolAtom) cmd;
+    }
+
+    /**
+     * @return the commands defined in the formula
+     */
+    MacroScope getScope() {
+        if (scope == null) {
+            scope = new MacroScope();
+        }
+
+        return scope;
+    }
+
+    /**
+     * @return the macro with the given name, defined in the formula or global, or null
+     */
+    private MacroInfo getMacro(String name) {
+        if (scope != null && !scope.isEmpty()) {
+            MacroInfo mac = scope.get(name);
+            if (mac != null) {
+                return mac;
+            }
+        }
+
+        return MacroInfo.Commands.get(name);
+    }
+
+    private Atom unknownCommand(String command) throws ParseException {
         // not a valid command or symbol or predefined TeXFormula found
         if (!isPartial) {
             throw new ParseException("Unknown symbol or command or predefined TeXFormula: '" + command + "'");
@@ -1209,9 +1482,14 @@ public class TeXParser {
 
     private void insert(int beg, int end, String formula) {
         parseString.replace(beg, end, formula);
-        len = parseString.length();
+        len += formula.length() - (end - beg);
         pos = beg;
         insertion = true;
+        // the inserted string has not been expanded and the groups have moved
+        expanded = false;
+        for (int i = 0; i < groupCount; i++) {
+            groups[i] = null;
+        }
     }
 
     /** Get the arguments ant the options of a command
@@ -1227,59 +1505,22 @@ public class TeXParser {
 
             //We get the options just after the command name
             if (opts == 1) {
-                int j = nbArgs + 1;
-                try {
-                    for (; j < nbArgs + 11; j++) {
-                        skipWhiteSpace();
-                        args[j] = getGroup(L_BRACK, R_BRACK);
-                    }
-                }
-                catch (ParseException e) {
-                    args[j] = null;
-                }
+                getOptions(args, nbArgs);
             }
 
             //We get the first argument
             skipWhiteSpace();
-            try {
-                args[1] = getGroup(L_GROUP, R_GROUP);
-            } catch (ParseException e) {
-                if (parseString.charAt(pos) != '\\') {
-                    args[1] = "" + parseString.charAt(pos);
-                    pos++;
-                }
-                else
-                    args[1] = getCommandWithArgs(getCommand());
-            }
+            args[1] = getArgumentString();
 
             //We get the options after the first argument
             if (opts == 2) {
-                int j = nbArgs + 1;
-                try {
-                    for (; j < nbArgs + 11; j++) {
-                        skipWhiteSpace();
-                        args[j] = getGroup(L_BRACK, R_BRACK);
-                    }
-                }
-                catch (ParseException e) {
-                    args[j] = null;
-                }
+                getOptions(args, nbArgs);
             }
 
             //We get the next arguments
             for (int i = 2; i <= nbArgs; i++) {
                 skipWhiteSpace();
-                try {
-                    args[i] = getGroup(L_GROUP, R_GROUP);
-                } catch (ParseException e) {
-                    if (parseString.charAt(pos) != '\\') {
-                        args[i] = "" + parseString.charAt(pos);
-                        pos++;
-                    }
-                    else {
-                        args[i] = getCommandWithArgs(getCommand());
-                    }
-                }
+                args[i] = getArgumentString();
             }
 
             if (ignoreWhiteSpace) {
@@ -1289,6 +1530,33 @@ public class TeXParser {
         return args;
     }
 
+    /**
+     * Get the options between brackets (a missing option is not an error).
+     */
+    private void getOptions(String[] args, int nbArgs) {
+        for (int j = nbArgs + 1; j < nbArgs + 11; j++) {
+            skipWhiteSpace();
+            if (pos < len && parseString.charAt(pos) != L_BRACK) {
+                return;
+            }
+            args[j] = getGroup(L_BRACK, R_BRACK);
+        }
+    }
+
+    /**
+     * Get an argument: a group, a single character or a command with its arguments.
+     */
+    private String getArgumentString() {
+        if (pos == len || parseString.charAt(pos) == L_GROUP) {
+            return getGroup(L_GROUP, R_GROUP);
+        }
+        if (parseString.charAt(pos) != ESCAPE) {
+            return String.valueOf(parseString.charAt(pos++));
+        }
+
+        return getCommandWithArgs(getCommand());
+    }
+
     /**
      * return a string with command and options and args
      * @param command name of command
@@ -1300,7 +1568,7 @@ public class TeXParser {
             return getGroup("\\left", "\\right");
         }
 
-        MacroInfo mac = MacroInfo.Commands.get(command);
+        MacroInfo mac = getMacro(command);
         if (mac != null) {
             int mac_opts = 0;
             if (mac.hasOptions) {
@@ -1334,22 +1602,224 @@ public class TeXParser {
      * Processes the given TeX command (by parsing following command arguments
      * in the parse string).
      */
-    private Atom processCommands(String command) throws ParseException {
-        MacroInfo mac = MacroInfo.Commands.get(command);
+    private Atom processCommands(String command, MacroInfo mac) throws ParseException {
         int opts = 0;
         if (mac.hasOptions)
             opts = mac.posOpts;
 
-        String[] args = getOptsArgs(mac.nbArgs, opts);
-        args[0] = command;
+        int mark = groupCount;
+        try {
+            String[] args = getOptsArgs(mac.nbArgs, opts);
+            args[0] = command;
 
-        if (NewCommandMacro.isMacro(command)) {
-            String ret = (String) mac.invoke(this, args);
-            insert(spos, pos, ret);
-            return null;
+            if (mac instanceof MacroTemplate) {
+                String ret = (String) mac.invoke(this, args);
+                insert(spos, pos, ret);
+                return null;
+            }
+
+            return (Atom) mac.invoke(this, args);
+        } finally {
+            clearGroups(mark);
+        }
+    }
+
+    /**
+     * Get a group and keep its range in the parsed string.
+     */
+    private String group(int start, int end) {
+        String s = parseString.substring(start, end);
+        if (groups == null) {
+            groups = new String[8];
+            groupRanges = new int[16];
+        } else if (groupCount == groups.length) {
+            String[] g = new String[2 * groupCount];
+            System.arraycopy(groups, 0, g, 0, groupCount);
+            groups = g;
+            int[] r = new int[4 * groupCount];
+            System.arraycopy(groupRanges, 0, r, 0, 2 * groupCount);
+            groupRanges = r;
+        }
+        groups[groupCount] = s;
+        groupRanges[2 * groupCount] = start;
+        groupRanges[2 * groupCount + 1] = end;
+        groupCount++;
+
+        return s;
+    }
+
+    private void clearGroups(int mark) {
+        while (groupCount > mark) {
+            groups[--groupCount] = null;
+        }
+    }
+
+    /**
+     * Find a group returned by this parser (by getGroup, getOverArgument or
+     * getDollarGroup) which can be parsed in place.
+     *
+     * @param s the group
+     * @param firstpass true if the user-defined macros must be replaced in the group
+     * @return the index of the group or -1 if s is not a group of this parser or if
+     * the parsed string has been modified since
+     */
+    int findGroup(String s, boolean firstpass) {
+        if (firstpass && !expanded) {
+            return -1;
+        }
+
+        int i = groupCount - 1;
+        while (i >= 0 && groups[i] != s) {
+            i--;
+        }
+
+        return i;
+    }
+
+    /**
+     * Parse a group in place, as a new parser on this group would do it, but without
+     * copying and rescanning it.
+     *
+     * @param i the index of the group (see findGroup)
+     * @param f the formula where to put the atoms
+     * @param space false if the white spaces must not be ignored
+     * @param array true if the group is parsed in the context of an array (and f
+     * is an ArrayOfAtoms)
+     * @throws ParseException if the group could not be parsed correctly
+     */
+    void parseGroup(int i, TeXFormula f, boolean space, boolean array) throws ParseException {
+        TeXFormula sformula = formula;
+        int spos = pos, slen = len, sgroup = group, satIsLetter = atIsLetter, sspos = this.spos;
+        boolean sinsertion = insertion, sarrayMode = arrayMode, signoreWhiteSpace = ignoreWhiteSpace;
+        int size = parseString.length();
+
+        formula = f;
+        pos = groupRanges[2 * i];
+        len = groupRanges[2 * i + 1];
+        group = 0;
+        atIsLetter = 0;
+        insertion = false;
+        arrayMode = array;
+        ignoreWhiteSpace = space;
+        try {
+            boolean record = !array && isRecording();
+            int context = space ? 1 : 0;
+            int j = record && previous != null ? previous.find(ParsedGroups.FORMULA, pos, len, len, context, f.textStyle) : -1;
+            if (j != -1) {
+                f.root = previous.getAtom(j);
+                parsed.addReused(previous, j);
+                skipLines(previous.getLines(j), previous.getCol(j));
+            } else {
+                int start = pos, sline = line;
+                parse();
+                // the \middle's are kept by the formula
+                if (record && f.middle.isEmpty() && isRecording()) {
+                    parsed.add(ParsedGroups.FORMULA, start, len, len, len, context, 0, line - sline, col, f.textStyle, f.root);
+                }
+            }
+        } finally {
+            // a command may have inserted its expansion before the current position
+            int delta = parseString.length() - size;
+            formula = sformula;
+            pos = spos + delta;
+            len = slen + delta;
+            group = sgroup;
+            atIsLetter = satIsLetter;
+            this.spos = sspos;
+            insertion = sinsertion;
+            arrayMode = sarrayMode;
+            ignoreWhiteSpace = signoreWhiteSpace;
+        }
+    }
+
+    /**
+     * Keep the groups parsed in the formula, and reuse the ones of its source before an
+     * edit.
+     *
+     * @param parsed where to put the parsed groups
+     * @param previous the groups of the source before the edit, or null
+     */
+    void setParsedGroups(ParsedGroups parsed, ParsedGroups previous) {
+        this.parsed = parsed;
+        this.previous = previous;
+    }
+
+    /*
+     * The groups are kept while the parsed string is the source of the formula: they are
+     * not kept in a formula changed by its first pass or by the commands it defines.
+     */
+    private boolean isRecording() {
+        return parsed != null && atIsLetter < 0x100 && parseString.isPristine() && (scope == null || scope.isEmpty());
+    }
+
+    /*
+     * Process a command, or reuse its atom when the command has not been changed by an
+     * edit. A command is kept when it only gives its atom: it does not use the atoms
+     * before it and it does not change the state of the parser. It may have read the
+     * spaces after it and the next character (the end of its name or an option).
+     */
+    private Atom getCommandAtom() throws ParseException {
+        if (arrayMode || !isRecording()) {
+            return processEscape();
+        }
+
+        int start = pos, sline = line, schanges = changes;
+        Atom root = formula.root;
+        boolean space = ignoreWhiteSpace;
+        int context = atIsLetter << 2 | (root == null ? 2 : 0) | (space ? 1 : 0);
+        int i = previous == null ? -1 : previous.find(ParsedGroups.COMMAND, start, -1, len, context, formula.textStyle);
+        if (i != -1) {
+            parsed.addReused(previous, i);
+            pos = previous.getEnd(i);
+            atIsLetter = previous.getEndContext(i);
+            skipLines(previous.getLines(i), previous.getCol(i));
+            return previous.getAtom(i);
+        }
+
+        Atom at = processEscape();
+        if (at != null && changes == schanges && formula.root == root && ignoreWhiteSpace == space && !arrayMode && !insertion && isRecording()) {
+            int reach = pos;
+            char c;
+            while (reach < len && ((c = parseString.charAt(reach)) == ' ' || c == '\t' || c == '\n' || c == '\r')) {
+                reach++;
+            }
+            parsed.add(ParsedGroups.COMMAND, start, pos, reach + 1, len, context, atIsLetter, line - sline, col, formula.textStyle, at);
+        }
+
+        return at;
+    }
+
+    // count the lines of a reused group, which is not parsed again
+    private void skipLines(int lines, int col) {
+        if (lines != 0) {
+            line += lines;
+            this.col = col;
         }
+    }
 
-        return (Atom) mac.invoke(this, args);
+    /**
+     * Parse a group in the context of an array.
+     *
+     * @param s the group
+     * @param array where to put the elements
+     * @throws ParseException if the group could not be parsed correctly
+     */
+    void parseArray(String s, ArrayOfAtoms array) throws ParseException {
+        int i = findGroup(s, false);
+        if (i == -1) {
+            new TeXParser(this, s, array).parse();
+        } else {
+            parseGroup(i, array, true, true);
+        }
+    }
+
+    /**
+     * @param com the name of a command
+     * @return true if the command defines a command or an environment (these
+     * definitions are made by the first pass)
+     */
+    static boolean isDefinition(String com) {
+        return "newcommand".equals(com) || "renewcommand".equals(com) || "newenvironment".equals(com) || "renewenvironment".equals(com);
     }
 
     /** Test the validity of the name of a command. It must contains only alpha characters and eventually a @ if makeAtletter activated
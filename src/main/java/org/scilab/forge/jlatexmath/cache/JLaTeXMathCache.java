@@ -34,27 +34,47 @@ import java.awt.Image;
 import java.awt.Insets;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
-import java.lang.ref.ReferenceQueue;
-import java.lang.ref.Reference;
-import java.lang.ref.SoftReference;
 import java.util.Iterator;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import org.scilab.forge.jlatexmath.AlphaMask;
+import org.scilab.forge.jlatexmath.GlyphCache;
 import org.scilab.forge.jlatexmath.ParseException;
 import org.scilab.forge.jlatexmath.TeXFormula;
 import org.scilab.forge.jlatexmath.TeXIcon;
 
 /**
- * Class to cache generated image from formulas
+ * Class to cache generated image from formulas.
+ * The cache is a LRU map bounded by a number of images and by the number of bytes
+ * used by their pixels. Formulas without colors of their own are kept as alpha
+ * masks shared by all the foreground colors.
  * @author Calixte DENIZET
  */
 public final class JLaTeXMathCache {
 
+    /**
+     * Default maximal number of bytes used by the cached images
+     */
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    /**
+     * Default maximal number of cached dimensions
+     */
+    public static final int DEFAULT_MAX_DIMENSIONS = 4096;
+
     private static final AffineTransform identity = new AffineTransform();
-    private static ConcurrentMap<CachedTeXFormula, SoftReference<CachedImage>> cache = new ConcurrentHashMap<CachedTeXFormula, SoftReference<CachedImage>>(128);
+    private static final Color defaultColor = new Color(0, 0, 0);
+    private static final Object lock = new Object();
+    private static final LinkedHashMap<CachedTeXFormula, CachedImage> cache = new LinkedHashMap<CachedTeXFormula, CachedImage>(128, 0.75f, true);
     private static int max = Integer.MAX_VALUE;
-    private static ReferenceQueue queue = new ReferenceQueue();
+    private static long maxBytes = DEFAULT_MAX_BYTES;
+    private static long bytes;
+    private static long hits;
+    private static long misses;
+    private static long evictions;
+    private static final LinkedHashMap<CachedTeXFormula, int[]> dimensions = new LinkedHashMap<CachedTeXFormula, int[]>(128, 0.75f, true);
+    private static int maxDimensions = DEFAULT_MAX_DIMENSIONS;
 
     private JLaTeXMathCache() { }
 
@@ -63,9 +83,89 @@ public final class JLaTeXMathCache {
      * @param max the max size
      */
     public static void setMaxCachedObjects(int max) {
-        JLaTeXMathCache.max = Math.max(max, 1);
-        cache.clear();
-        cache = new ConcurrentHashMap<CachedTeXFormula, SoftReference<CachedImage>>(JLaTeXMathCache.max);
+        synchronized (lock) {
+            JLaTeXMathCache.max = Math.max(max, 1);
+            clear();
+        }
+    }
+
+    /**
+     * Set the maximal number of bytes used by the pixels of the cached images.
+     * The least recently used images are evicted to respect the new budget.
+     * @param maxBytes the max number of bytes
+     */
+    public static void setMaxCachedBytes(long maxBytes) {
+        synchronized (lock) {
+            JLaTeXMathCache.maxBytes = Math.max(maxBytes, 1);
+            evict();
+        }
+    }
+
+    /**
+     * Set the maximal number of dimensions cached by the metrics-only path.
+     * @param max the max number of dimensions
+     */
+    public static void setMaxCachedDimensions(int max) {
+        synchronized (lock) {
+            maxDimensions = Math.max(max, 1);
+            evictDimensions();
+        }
+    }
+
+    /**
+     * @return the number of lookups which found their image in the cache
+     */
+    public static long getHitCount() {
+        synchronized (lock) {
+            return hits;
+        }
+    }
+
+    /**
+     * @return the number of lookups which needed to render an image
+     */
+    public static long getMissCount() {
+        synchronized (lock) {
+            return misses;
+        }
+    }
+
+    /**
+     * @return the number of images removed to respect the bounds of the cache
+     */
+    public static long getEvictionCount() {
+        synchronized (lock) {
+            return evictions;
+        }
+    }
+
+    /**
+     * @return the number of bytes used by the pixels of the cached images
+     */
+    public static long getCachedBytes() {
+        synchronized (lock) {
+            return bytes;
+        }
+    }
+
+    /**
+     * @return the number of cached images
+     */
+    public static int getCachedObjects() {
+        synchronized (lock) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Reset the hit, miss and eviction counters
+     */
+    public static void resetStatistics() {
+        synchronized (lock) {
+            hits = 0;
+            misses = 0;
+            evictions = 0;
+        }
     }
 
     /**
@@ -84,6 +184,9 @@ public final class JLaTeXMathCache {
     }
 
     /**
+     * Get the dimensions of a formula. The formula is laid out but not painted,
+     * and the dimensions are cached independently of the images, so nothing is
+     * rasterized unless the image is already in the cache.
      * @param o an Object to identify the image in the cache
      * @return an array of length 3 containing width, height and depth
      */
@@ -92,12 +195,29 @@ public final class JLaTeXMathCache {
             return new int[]{0, 0, 0};
         }
         CachedTeXFormula cached = (CachedTeXFormula) o;
-        SoftReference<CachedImage> img = cache.get(cached);
-        if (img == null || img.get() == null) {
-            img = makeImage(cached);
+        CachedTeXFormula key = cached.getColorlessKey();
+        synchronized (lock) {
+            CachedImage img = lookup(cached);
+            if (img != null) {
+                hits++;
+                return new int[]{img.width, img.height, img.depth};
+            }
+            int[] dims = dimensions.get(key);
+            if (dims != null) {
+                hits++;
+                return dims.clone();
+            }
+            misses++;
+        }
+
+        TeXIcon icon = makeIcon(key);
+        int[] dims = new int[]{icon.getIconWidth(), icon.getIconHeight(), icon.getIconDepth()};
+        synchronized (lock) {
+            dimensions.put(key, dims);
+            evictDimensions();
         }
 
-        return new int[]{cached.width, cached.height, cached.depth};
+        return dims.clone();
     }
 
     /**
@@ -110,10 +230,7 @@ public final class JLaTeXMathCache {
      */
     public static Object getCachedTeXFormula(String f, int style, int type, int size, int inset, Color fgcolor) throws ParseException  {
         CachedTeXFormula cached = new CachedTeXFormula(f, style, type, size, inset, fgcolor);
-        SoftReference<CachedImage> img = cache.get(cached);
-        if (img == null || img.get() == null) {
-            img = makeImage(cached);
-        }
+        getImage(cached);
 
         return cached;
     }
@@ -126,7 +243,9 @@ public final class JLaTeXMathCache {
      * Clear the cache
      */
     public static void clearCache() {
-        cache.clear();
+        synchronized (lock) {
+            clear();
+        }
     }
 
     /**
@@ -137,7 +256,7 @@ public final class JLaTeXMathCache {
      * @param inset the inset to add on the top, bottom, left and right
      */
     public static void removeCachedTeXFormula(String f, int style, int type, int size, int inset, Color fgcolor) throws ParseException  {
-        cache.remove(new CachedTeXFormula(f, style, type, size, inset, fgcolor));
+        removeCachedTeXFormula(new CachedTeXFormula(f, style, type, size, inset, fgcolor));
     }
 
     public static void removeCachedTeXFormula(String f, int style, int size, int inset) throws ParseException  {
@@ -150,7 +269,20 @@ public final class JLaTeXMathCache {
      */
     public static void removeCachedTeXFormula(Object o) throws ParseException  {
         if (o != null && o instanceof CachedTeXFormula) {
-            cache.remove((CachedTeXFormula) o);
+            synchronized (lock) {
+                CachedTeXFormula cached = (CachedTeXFormula) o;
+                CachedTeXFormula colorless = cached.getColorlessKey();
+                dimensions.remove(colorless);
+                CachedImage img = cache.remove(cached);
+                if (img != null) {
+                    bytes -= img.weight;
+                }
+                // the mask is shared by all the colors
+                img = cache.remove(colorless);
+                if (img != null) {
+                    bytes -= img.weight;
+                }
+            }
         }
     }
 
@@ -181,11 +313,7 @@ public final class JLaTeXMathCache {
             return null;
         }
         CachedTeXFormula cached = (CachedTeXFormula) o;
-        SoftReference<CachedImage> img = cache.get(cached);
-        if (img == null || img.get() == null) {
-            img = makeImage(cached);
-        }
-        g.drawImage(img.get().image, identity, null);
+        g.drawImage(getImage(cached).getImage(cached.fgcolor), identity, null);
 
         return cached;
     }
@@ -215,71 +343,151 @@ public final class JLaTeXMathCache {
         if (o == null || !(o instanceof CachedTeXFormula)) {
             return null;
         }
+
         CachedTeXFormula cached = (CachedTeXFormula) o;
-        SoftReference<CachedImage> img = cache.get(cached);
-        if (img == null || img.get() == null) {
-            img = makeImage(cached);
+        return getImage(cached).getImage(cached.fgcolor);
+    }
+
+    /**
+     * Find the alpha mask shared by all the colors of a formula, or the colored image
+     * of a formula with its own colors. Must be called with the lock held.
+     */
+    private static CachedImage lookup(CachedTeXFormula cached) {
+        CachedImage img = cache.get(cached.getColorlessKey());
+        if (img != null && (img.mask != null || cached.fgcolor == null)) {
+            return img;
         }
 
-        return img.get().image;
+        return cached.fgcolor == null ? null : cache.get(cached);
     }
 
-    private static SoftReference<CachedImage> makeImage(CachedTeXFormula cached) throws ParseException {
+    private static CachedImage getImage(CachedTeXFormula cached) throws ParseException {
+        synchronized (lock) {
+            CachedImage img = lookup(cached);
+            if (img != null) {
+                hits++;
+                return img;
+            }
+            misses++;
+        }
+
+        // the rendering is done outside of the lock
+        CachedImage img = makeImage(cached);
+        synchronized (lock) {
+            CachedImage old = cache.put(img.mask == null ? cached : cached.getColorlessKey(), img);
+            if (old != null) {
+                bytes -= old.weight;
+            }
+            bytes += img.weight;
+            evict();
+        }
+
+        return img;
+    }
+
+    private static TeXIcon makeIcon(CachedTeXFormula cached) throws ParseException {
         TeXFormula formula = new TeXFormula(cached.f);
         TeXIcon icon = formula.createTeXIcon(cached.style, cached.size, cached.type, cached.fgcolor);
         icon.setInsets(new Insets(cached.inset, cached.inset, cached.inset, cached.inset));
+
+        return icon;
+    }
+
+    private static CachedImage makeImage(CachedTeXFormula cached) throws ParseException {
+        TeXIcon icon = makeIcon(cached);
+        if (!icon.isColored) {
+            // the coverage does not depend on the color
+            return new CachedImage(AlphaMask.create(icon), icon.getIconWidth(), icon.getIconHeight(), icon.getIconDepth());
+        }
+
         BufferedImage image = new BufferedImage(icon.getIconWidth(), icon.getIconHeight(), BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2 = image.createGraphics();
-        icon.paintIcon(null, g2, 0, 0);
-        g2.dispose();
-        cached.setDimensions(icon.getIconWidth(), icon.getIconHeight(), icon.getIconDepth());
-        SoftReference<CachedImage> img = new SoftReference<CachedImage>(new CachedImage(image, cached), queue);
-
-        if (cache.size() >= max) {
-            Reference soft;
-            while ((soft = queue.poll()) != null) {
-                CachedImage ci = (CachedImage) soft.get();
-                if (ci != null) {
-                    cache.remove(ci.cachedTf);
-                }
-            }
-            Iterator<CachedTeXFormula> iter = cache.keySet().iterator();
-            if (iter.hasNext()) {
-                CachedTeXFormula c = iter.next();
-                SoftReference<CachedImage> cachedImage = cache.get(c);
-                if (cachedImage != null) {
-                    cachedImage.clear();
-                }
-                cache.remove(c);
-            }
+        GlyphCache.paint(icon, image, 0, 0);
+
+        return new CachedImage(image, icon.getIconWidth(), icon.getIconHeight(), icon.getIconDepth());
+    }
+
+    /**
+     * Remove the least recently used images until the bounds are respected.
+     * The most recent image is always kept. Must be called with the lock held.
+     */
+    private static void evict() {
+        Iterator<Map.Entry<CachedTeXFormula, CachedImage>> iter = cache.entrySet().iterator();
+        while ((cache.size() > max || bytes > maxBytes) && cache.size() > 1 && iter.hasNext()) {
+            bytes -= iter.next().getValue().weight;
+            iter.remove();
+            evictions++;
         }
-        cache.put(cached, img);
+    }
 
-        return img;
+    /**
+     * Must be called with the lock held.
+     */
+    private static void evictDimensions() {
+        Iterator<CachedTeXFormula> iter = dimensions.keySet().iterator();
+        while (dimensions.size() > maxDimensions && iter.hasNext()) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    /**
+     * Must be called with the lock held.
+     */
+    private static void clear() {
+        cache.clear();
+        dimensions.clear();
+        bytes = 0;
     }
 
     private static class CachedImage {
 
-        Image image;
-        CachedTeXFormula cachedTf;
+        final Image image;
+        final AlphaMask mask;
+        final int width;
+        final int height;
+        final int depth;
+        final long weight;
 
-        CachedImage(Image image, CachedTeXFormula cachedTf) {
+        CachedImage(BufferedImage image, int width, int height, int depth) {
             this.image = image;
-            this.cachedTf = cachedTf;
+            this.mask = null;
+            this.width = width;
+            this.height = height;
+            this.depth = depth;
+            this.weight = (long) image.getWidth() * image.getHeight() * ((image.getColorModel().getPixelSize() + 7) / 8);
+        }
+
+        CachedImage(AlphaMask mask, int width, int height, int depth) {
+            this.image = null;
+            this.mask = mask;
+            this.width = width;
+            this.height = height;
+            this.depth = depth;
+            this.weight = mask.getByteCount();
+        }
+
+        /**
+         * @param fgcolor the foreground color, null for the default one
+         * @return the image in the given color
+         */
+        Image getImage(Color fgcolor) {
+            if (mask == null) {
+                return image;
+            }
+
+            return mask.createImage(fgcolor == null ? defaultColor : fgcolor);
         }
     }
 
     private static class CachedTeXFormula {
 
-        String f;
-        int style;
-        int type;
-        int size;
-        int inset;
-        int width = -1;
-        int height;
-        int depth;
-        Color fgcolor;
+        final String f;
+        final int style;
+        final int type;
+        final int size;
+        final int inset;
+        final Color fgcolor;
+        final int hash;
 
         CachedTeXFormula(String f, int style, int type, int size, int inset, Color fgcolor) {
             this.f = f;
@@ -288,34 +496,34 @@ public final class JLaTeXMathCache {
             this.size = size;
             this.inset = inset;
             this.fgcolor = fgcolor;
+
+            int h = f.hashCode();
+            h = 31 * h + style;
+            h = 31 * h + type;
+            h = 31 * h + size;
+            h = 31 * h + inset;
+            h = 31 * h + (fgcolor == null ? 0 : fgcolor.hashCode());
+            this.hash = h;
         }
 
-        void setDimensions(int width, int height, int depth) {
-            this.width = width;
-            this.height = height;
-            this.depth = depth;
+        /**
+         * @return the key of the dimensions and of the alpha masks, the color has no effect on them
+         */
+        CachedTeXFormula getColorlessKey() {
+            return fgcolor == null ? this : new CachedTeXFormula(f, style, type, size, inset, null);
         }
 
         /**
          * {@inheritDoc}
          */
         public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
             if (o != null && o instanceof CachedTeXFormula) {
                 CachedTeXFormula c = (CachedTeXFormula) o;
-                boolean b = (c.f.equals(f) && c.style == style && c.type == type && c.size == size && c.inset == inset && c.fgcolor.equals(fgcolor));
-                if (b) {
-                    if (c.width == -1) {
-                        c.width = width;
-                        c.height = height;
-                        c.depth = depth;
-                    } else if (width == -1) {
-                        width = c.width;
-                        height = c.height;
-                        depth = c.depth;
-                    }
-                }
-
-                return b;
+                return c.hash == hash && c.style == style && c.type == type && c.size == size && c.inset == inset
+                    && (c.fgcolor == null ? fgcolor == null : c.fgcolor.equals(fgcolor)) && c.f.equals(f);
             }
 
             return false;
@@ -325,7 +533,7 @@ public final class JLaTeXMathCache {
          * {@inheritDoc}
          */
         public int hashCode() {
-            return f.hashCode();
+            return hash;
         }
     }
 }
@@ -0,0 +1,57 @@
+/* DefaultTeXFontTest.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Testing the characters shared by the fonts
+ */
+public class DefaultTeXFontTest {
+
+    private static String measure(String latex) {
+        TeXIcon icon = new TeXFormula(latex).createTeXIcon(TeXConstants.STYLE_DISPLAY, 20);
+        return icon.getIconWidth() + "x" + icon.getIconHeight();
+    }
+
+    @Test
+    public void charactersFollowTheDPI() {
+        float ppp = TeXFormula.PIXELS_PER_POINT;
+        try {
+            String small = measure("x^2+\\sum y");
+            TeXFormula.setDPITarget(300);
+            String large = measure("x^2+\\sum y");
+            assertEquals("352x140", large);
+            TeXFormula.setDPITarget(72);
+            assertEquals(small, measure("x^2+\\sum y"));
+        } finally {
+            TeXFormula.PIXELS_PER_POINT = ppp;
+        }
+    }
+}
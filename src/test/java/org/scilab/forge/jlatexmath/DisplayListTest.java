@@ -0,0 +1,166 @@
+/* DisplayListTest.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Testing {@link DisplayList}
+ */
+public class DisplayListTest {
+
+    private static final String FORMULA = "\\frac{a+b}{\\sqrt{x^2}} \\sum_{i=0}^n \\left( \\int f \\right) \\overline{z}";
+
+    private static DisplayList record(String latex) {
+        return DisplayList.record(new TeXFormula(latex).createTeXIcon(TeXConstants.STYLE_DISPLAY, 20));
+    }
+
+    private static int[] paint(TeXIcon icon) {
+        BufferedImage image = new BufferedImage(icon.getIconWidth(), icon.getIconHeight(), BufferedImage.TYPE_INT_ARGB);
+        GlyphCache.paint(icon, image, 0, 0);
+
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static void assertInvalid(byte[] data) {
+        try {
+            DisplayList.read(new ByteArrayInputStream(data));
+            fail("A corrupt display list has been read");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    // a display list with the given font names and records
+    private static byte[] create(String[] fonts, byte[] records) {
+        float[] sizes = new float[fonts.length];
+        Arrays.fill(sizes, 1f);
+
+        return new DisplayList(10, 5, 1, 20, fonts, sizes, ByteBuffer.wrap(records)).toByteArray();
+    }
+
+    // the id of a loaded font
+    private static String loadedFont() {
+        record("x");
+
+        return DefaultTeXFontParser.Font_ID.get(0);
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        DisplayList list = record(FORMULA);
+        byte[] data = list.toByteArray();
+        DisplayList read = DisplayList.read(new ByteArrayInputStream(data));
+
+        assertEquals(list.getWidth(), read.getWidth(), 0);
+        assertEquals(list.getHeight(), read.getHeight(), 0);
+        assertEquals(list.getDepth(), read.getDepth(), 0);
+        assertEquals(list.getSize(), read.getSize(), 0);
+        assertArrayEquals(data, read.toByteArray());
+        assertArrayEquals(paint(list.createTeXIcon(list.getSize())), paint(read.createTeXIcon(read.getSize())));
+    }
+
+    @Test
+    public void sameImageAsTheFormula() throws IOException {
+        TeXIcon icon = new TeXFormula(FORMULA).createTeXIcon(TeXConstants.STYLE_DISPLAY, 20);
+        DisplayList read = DisplayList.read(ByteBuffer.wrap(DisplayList.record(icon).toByteArray()));
+        TeXIcon replayed = read.createTeXIcon(read.getSize());
+
+        assertEquals(icon.getIconWidth(), replayed.getIconWidth());
+        assertEquals(icon.getIconHeight(), replayed.getIconHeight());
+        // the antialiased edges of the glyphs may differ slightly, not the ink
+        long expected = 0, actual = 0;
+        for (int argb : paint(icon)) {
+            expected += argb >>> 24;
+        }
+        for (int argb : paint(replayed)) {
+            actual += argb >>> 24;
+        }
+        assertEquals(expected, actual, expected / 100);
+    }
+
+    @Test
+    public void truncated() {
+        byte[] data = record(FORMULA).toByteArray();
+        for (int length = 0; length < data.length; length += 7) {
+            assertInvalid(Arrays.copyOf(data, length));
+        }
+    }
+
+    @Test
+    public void badHeader() {
+        byte[] data = record(FORMULA).toByteArray();
+        byte[] magic = data.clone();
+        magic[0] = 0;
+        assertInvalid(magic);
+        byte[] version = data.clone();
+        version[5] = 99;
+        assertInvalid(version);
+    }
+
+    @Test
+    public void longFontName() {
+        // the length of the first font name is read as an unsigned byte
+        byte[] data = record(FORMULA).toByteArray();
+        data[26] = (byte) 0xC8;
+        assertInvalid(data);
+    }
+
+    @Test
+    public void unknownFont() {
+        assertInvalid(create(new String[] { "nosuchfont" }, new byte[0]));
+    }
+
+    @Test
+    public void badFontIndex() throws IOException {
+        String font = loadedFont();
+        ByteBuffer glyph = ByteBuffer.allocate(1 + 2 + 2 + 3 * 4);
+        glyph.put(DisplayList.OP_GLYPH).putShort((short) 1).putChar('x').putFloat(0).putFloat(0).putFloat(1);
+        assertInvalid(create(new String[] { font }, glyph.array()));
+
+        glyph.putShort(1, (short) 0);
+        DisplayList.read(new ByteArrayInputStream(create(new String[] { font }, glyph.array())));
+    }
+
+    @Test
+    public void badRecord() {
+        String font = loadedFont();
+        assertInvalid(create(new String[] { font }, new byte[] { 42 }));
+        assertInvalid(create(new String[] { font }, new byte[] { DisplayList.OP_RULE, 0, 0 }));
+        assertInvalid(create(new String[] { font }, new byte[] { DisplayList.OP_PATH, 0, -1, -1, -1, -1 }));
+    }
+}
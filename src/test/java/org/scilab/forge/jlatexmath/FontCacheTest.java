@@ -0,0 +1,115 @@
+/* FontCacheTest.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Testing the fonts extracted by {@link FontCache}
+ */
+public class FontCacheTest {
+
+    private static byte[] read(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int off = 0, n;
+            while (off < data.length && (n = in.read(data, off, data.length - off)) != -1) {
+                off += n;
+            }
+        } finally {
+            in.close();
+        }
+
+        return data;
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void corruptFileIsReplaced() throws IOException {
+        File dir = File.createTempFile("fontcache", "");
+        assertTrue(dir.delete());
+        String property = System.getProperty(FontCache.PROPERTY);
+        System.setProperty(FontCache.PROPERTY, dir.getPath());
+        try {
+            byte[] data = new byte[10000];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) i;
+            }
+            File file = FontCache.extract("/fonts/test.ttf", data);
+            assertNotNull(file);
+            assertArrayEquals(data, read(file));
+
+            // a file of the same length with another content
+            byte[] other = data.clone();
+            Arrays.fill(other, 5000, 6000, (byte) 0);
+            write(file, other);
+            file = FontCache.extract("/fonts/test.ttf", data);
+            assertNotNull(file);
+            assertArrayEquals(data, read(file));
+
+            // a truncated file
+            write(file, Arrays.copyOf(data, 100));
+            file = FontCache.extract("/fonts/test.ttf", data);
+            assertNotNull(file);
+            assertArrayEquals(data, read(file));
+        } finally {
+            if (property == null) {
+                System.clearProperty(FontCache.PROPERTY);
+            } else {
+                System.setProperty(FontCache.PROPERTY, property);
+            }
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/* MacroBenchmark.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+
+package org.scilab.forge.jlatexmath;
+
+import java.util.Arrays;
+
+/**
+ * Compare the dispatch of a command of a package called by reflection and called
+ * directly (see MacroPackage):
+ * <pre>
+ * java -cp target/classes:target/test-classes org.scilab.forge.jlatexmath.MacroBenchmark [iterations]
+ * </pre>
+ */
+public final class MacroBenchmark {
+
+    /**
+     * A package whose commands are called by reflection.
+     */
+    public static final class Reflective {
+
+        public Reflective() { }
+
+        public Object first_macro(TeXParser tp, String[] args) {
+            return args[1];
+        }
+    }
+
+    /**
+     * The same package, with its commands bound directly.
+     */
+    public static final class Direct implements MacroPackage {
+
+        public Direct() { }
+
+        public Object first_macro(TeXParser tp, String[] args) {
+            return args[1];
+        }
+
+        public MacroFunction getMacro(String methodName) {
+            if ("first_macro".equals(methodName)) {
+                return new MacroFunction() {
+                    public Object invoke(TeXParser tp, String[] args) {
+                        return first_macro(tp, args);
+                    }
+                };
+            }
+
+            return null;
+        }
+    }
+
+    private MacroBenchmark() { }
+
+    public static void main(String[] args) throws ParseException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        TeXParser tp = new TeXParser("", new TeXFormula(), false);
+        String[] margs = tp.getOptsArgs(1, 0);
+        margs[0] = "first";
+        margs[1] = "x";
+
+        run("reflective", new MacroInfo(Reflective.class.getName(), "first_macro", 1), tp, margs, iterations);
+        run("direct", new MacroInfo(Direct.class.getName(), "first_macro", 1), tp, margs, iterations);
+    }
+
+    private static void run(String name, MacroInfo mac, TeXParser tp, String[] args, int iterations) throws ParseException {
+        // compilation
+        invoke(mac, tp, args, iterations / 10);
+
+        double[] times = new double[5];
+        for (int i = 0; i < times.length; i++) {
+            long start = System.nanoTime();
+            invoke(mac, tp, args, iterations);
+            times[i] = (System.nanoTime() - start) / (double) iterations;
+        }
+        Arrays.sort(times);
+        System.out.println(name + ": " + times[times.length / 2] + " ns/call");
+    }
+
+    private static void invoke(MacroInfo mac, TeXParser tp, String[] args, int iterations) throws ParseException {
+        for (int i = 0; i < iterations; i++) {
+            if (mac.invoke(tp, args) != args[1]) {
+                throw new IllegalStateException();
+            }
+        }
+    }
+}
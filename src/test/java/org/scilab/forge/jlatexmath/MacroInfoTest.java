@@ -0,0 +1,110 @@
+/* MacroInfoTest.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Testing the dispatch of the commands of a package by {@link MacroInfo}
+ */
+public class MacroInfoTest {
+
+    /**
+     * A package whose commands are bound directly.
+     */
+    public static final class Direct implements MacroPackage {
+
+        public Direct() { }
+
+        public Object first_macro(TeXParser tp, String[] args) {
+            return args[1];
+        }
+
+        public Object failing_macro(TeXParser tp, String[] args) {
+            throw new IllegalArgumentException("bad argument " + args[1]);
+        }
+
+        public MacroFunction getMacro(String methodName) {
+            if ("first_macro".equals(methodName)) {
+                return new MacroFunction() {
+                    public Object invoke(TeXParser tp, String[] args) {
+                        return first_macro(tp, args);
+                    }
+                };
+            }
+            if ("failing_macro".equals(methodName)) {
+                return new MacroFunction() {
+                    public Object invoke(TeXParser tp, String[] args) {
+                        return failing_macro(tp, args);
+                    }
+                };
+            }
+
+            return null;
+        }
+    }
+
+    private static String[] args(TeXParser tp, String name, String arg) {
+        String[] args = tp.getOptsArgs(1, 0);
+        args[0] = name;
+        args[1] = arg;
+
+        return args;
+    }
+
+    @Test
+    public void reflectiveAndDirect() throws ParseException {
+        TeXParser tp = new TeXParser("", new TeXFormula(), false);
+        String[] args = args(tp, "first", "x");
+
+        MacroInfo reflective = new MacroInfo(MacroBenchmark.Reflective.class.getName(), "first_macro", 1);
+        assertNull(reflective.function);
+        assertSame(args[1], reflective.invoke(tp, args));
+
+        MacroInfo direct = new MacroInfo(Direct.class.getName(), "first_macro", 1);
+        assertNotNull(direct.function);
+        assertSame(args[1], direct.invoke(tp, args));
+    }
+
+    @Test
+    public void errorKeepsTheCause() {
+        TeXParser tp = new TeXParser("", new TeXFormula(), false);
+        MacroInfo mac = new MacroInfo(Direct.class.getName(), "failing_macro", 1);
+        assertNotNull(mac.function);
+        try {
+            mac.invoke(tp, args(tp, "failing", "y"));
+            fail("The error of the command has been lost");
+        } catch (ParseException e) {
+            assertSame(IllegalArgumentException.class, e.getCause().getClass());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/* MacroScopeTest.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Testing the commands and environments defined in a formula (see {@link MacroScope})
+ */
+public class MacroScopeTest {
+
+    private static int[] render(String latex) {
+        TeXIcon icon = new TeXFormula(latex).createTeXIcon(TeXConstants.STYLE_DISPLAY, 20);
+        BufferedImage image = new BufferedImage(icon.getIconWidth(), icon.getIconHeight(), BufferedImage.TYPE_INT_ARGB);
+        GlyphCache.paint(icon, image, 0, 0);
+        int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        int[] res = new int[pixels.length + 2];
+        res[0] = image.getWidth();
+        res[1] = image.getHeight();
+        System.arraycopy(pixels, 0, res, 2, pixels.length);
+
+        return res;
+    }
+
+    private static void assertSameRendering(String expected, String actual) {
+        assertArrayEquals(actual, render(expected), render(actual));
+    }
+
+    private static void assertUnknown(String latex) {
+        try {
+            new TeXFormula(latex);
+            fail(latex + " has been parsed");
+        } catch (ParseException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void command() {
+        assertSameRendering("b", "\\newcommand{\\foo}{b}\\foo");
+        assertSameRendering("a^2+c^2", "\\newcommand{\\foo}[1]{#1^2}\\foo{a}+\\foo{c}");
+        assertSameRendering("c", "\\newcommand{\\foo}{b}\\renewcommand{\\foo}{c}\\foo");
+    }
+
+    @Test
+    public void commandInAGroup() {
+        assertSameRendering("{}b", "{\\newcommand{\\foo}{b}}\\foo");
+    }
+
+    @Test
+    public void commandIsNotKeptAfterItsFormula() {
+        new TeXFormula("\\newcommand{\\scopedfoo}{b}\\scopedfoo");
+        assertUnknown("\\scopedfoo");
+    }
+
+    @Test
+    public void environment() {
+        assertSameRendering("(a)", "\\newenvironment{scopede}{(}{)}\\begin{scopede}a\\end{scopede}");
+    }
+
+    @Test
+    public void environmentWithArguments() {
+        assertSameRendering("(za)", "\\newenvironment{scopede}[1]{(#1}{)}\\begin{scopede}{z}a\\end{scopede}");
+        assertSameRendering("[x|ya] [u|vb]", "\\newenvironment{scopedg}[2]{[#1|#2}{]}\\begin{scopedg}{x}{y}a\\end{scopedg} \\begin{scopedg}{u}{v}b\\end{scopedg}");
+        assertSameRendering("[za]", "\\newenvironment{scopede}[1]{(#1}{)}\\renewenvironment{scopede}[1]{[#1}{]}\\begin{scopede}{z}a\\end{scopede}");
+    }
+
+    @Test
+    public void environmentIsNotKeptAfterItsFormula() {
+        new TeXFormula("\\newenvironment{scopedh}[1]{(#1}{)}\\begin{scopedh}{z}a\\end{scopedh}");
+        assertUnknown("\\begin{scopedh}{z}a\\end{scopedh}");
+    }
+}
@@ -0,0 +1,76 @@
+/* ParserBenchmark.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+import java.util.Arrays;
+
+/**
+ * Measure the time spent by the parser on formulas made of many commands (symbols,
+ * predefined formulas and macros), without creating the boxes:
+ * <pre>
+ * java -cp target/classes:target/test-classes org.scilab.forge.jlatexmath.ParserBenchmark [iterations]
+ * </pre>
+ */
+public final class ParserBenchmark {
+
+    private static final String[] FORMULAS = {
+        "\\alpha\\beta\\gamma\\delta\\epsilon\\zeta\\eta\\theta\\iota\\kappa\\lambda\\mu\\nu\\xi\\pi\\rho\\sigma\\tau\\upsilon\\phi\\chi\\psi\\omega",
+        "\\Gamma\\Delta\\Theta\\Lambda\\Xi\\Pi\\Sigma\\Upsilon\\Phi\\Psi\\Omega",
+        "a\\leq b\\geq c\\neq d\\approx e\\equiv f\\sim g\\simeq h\\cong i\\propto j\\subset k\\supset l\\in m\\ni n",
+        "\\forall x\\exists y\\neg z\\wedge\\vee\\cap\\cup\\setminus\\emptyset\\infty\\partial\\nabla\\pm\\mp\\times\\div\\cdot",
+        "\\leftarrow\\rightarrow\\Leftarrow\\Rightarrow\\leftrightarrow\\Leftrightarrow\\mapsto\\uparrow\\downarrow\\to",
+        "\\sin x\\cos y\\tan z\\log a\\ln b\\exp c\\lim_{n\\to\\infty}\\max\\min\\sup\\inf\\det\\dim\\ker",
+        "\\sum_{i=0}^n\\prod_{j=1}^m\\int_a^b\\oint\\bigcup\\bigcap\\bigoplus\\bigotimes\\coprod",
+        "\\ldots\\cdots\\vdots\\ddots\\quad\\qquad\\,\\;\\!\\langle x\\rangle\\lceil y\\rceil\\lfloor z\\rfloor"
+    };
+
+    private ParserBenchmark() { }
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        // initialisation and compilation
+        parse(iterations / 10);
+
+        double[] times = new double[5];
+        for (int i = 0; i < times.length; i++) {
+            long start = System.nanoTime();
+            parse(iterations);
+            times[i] = (System.nanoTime() - start) / 1000.0 / (iterations * FORMULAS.length);
+        }
+        Arrays.sort(times);
+        System.out.println("parse: " + times[times.length / 2] + " us/formula");
+    }
+
+    private static void parse(int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            for (String formula : FORMULAS) {
+                new TeXFormula(formula);
+            }
+        }
+    }
+}
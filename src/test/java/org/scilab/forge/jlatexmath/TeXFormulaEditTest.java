@@ -0,0 +1,149 @@
+/* TeXFormulaEditTest.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Testing {@link TeXFormula#edit}: an edited formula must be rendered as the same
+ * source parsed from scratch.
+ */
+public class TeXFormulaEditTest {
+
+    private static final String[] FORMULAS = {
+        "\\frac{a_{1}+b^{2}}{\\sqrt{x_1}} + \\frac{a_{2}+b^{2}}{\\sqrt{x_2}}",
+        "\\mathrm{ab{c}d} + \\text{a {b} c} x^{y^{z}}_{w}",
+        "{{a}b}{c}' \\left( {x} \\middle| {y} \\right)",
+        "\\begin{array}{cc} {1} & {2} \\\\ {3} & \\frac{4}{5}\\end{array}",
+        "\\sqrt[{3}]{x} \\hat{\\frac{a}{b}} \\mathbf{x{y}}",
+        "\\sum_{i=0}^{n} i^2 = \\frac{n(n+1)(2n+1)}{6}",
+        "a\n{b\nc}\n{d}"
+    };
+
+    // the rendering of a formula, or its error
+    private static String render(TeXFormula f) {
+        try {
+            TeXIcon icon = f.createTeXIcon(TeXConstants.STYLE_DISPLAY, 20);
+            BufferedImage image = new BufferedImage(Math.max(icon.getIconWidth(), 1), Math.max(icon.getIconHeight(), 1), BufferedImage.TYPE_INT_ARGB);
+            GlyphCache.paint(icon, image, 0, 0);
+            int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+
+            return icon.getIconWidth() + "x" + icon.getIconHeight() + " " + Arrays.hashCode(pixels);
+        } catch (RuntimeException e) {
+            return e.toString();
+        }
+    }
+
+    private static String parse(String latex, boolean partial) {
+        try {
+            return render(partial ? TeXFormula.getPartialTeXFormula(latex) : new TeXFormula(latex));
+        } catch (ParseException e) {
+            return "ParseException";
+        }
+    }
+
+    @Test
+    public void typing() throws ParseException {
+        // each formula is typed from the start, with a partial formula at each keystroke
+        for (String latex : FORMULAS) {
+            TeXFormula f = TeXFormula.getPartialTeXFormula("");
+            for (int i = 0; i < latex.length(); i++) {
+                f = f.edit(i, i, latex.substring(i, i + 1));
+                String source = latex.substring(0, i + 1);
+                assertEquals(source, parse(source, true), render(f));
+            }
+        }
+    }
+
+    @Test
+    public void editingInPlace() throws ParseException {
+        // successive edits in the middle of the formulas: replace, insert and delete
+        String[] texts = { "x", "", "{y}", "\\alpha ", "^2", "}{" };
+        for (String latex : FORMULAS) {
+            TeXFormula f = TeXFormula.getPartialTeXFormula(latex);
+            String source = latex;
+            for (int i = 0; i < 40; i++) {
+                int start = (i * 7) % source.length();
+                int end = Math.min(source.length(), start + i % 3);
+                String text = texts[i % texts.length];
+                f = f.edit(start, end, text);
+                source = source.substring(0, start) + text + source.substring(end);
+                assertEquals(source, parse(source, true), render(f));
+            }
+        }
+    }
+
+    @Test
+    public void commandAtTheEndOfAGroup() throws ParseException {
+        // \frac stopped at the end of the argument of \sqrt, it reads the rest of the formula once \sqrt is removed
+        TeXFormula f = TeXFormula.getPartialTeXFormula("\\sqrt{\\frac{a}} + b");
+        f = f.edit(0, 0, "").edit(0, 5, "");
+        assertEquals(parse("{\\frac{a}} + b", true), render(f));
+    }
+
+    @Test
+    public void randomEdits() throws ParseException {
+        String[] texts = { "", "x", "{", "}", "\\frac", "\\sqrt", "{a}", "^", " ", "\\left(", "\\right)" };
+        Random random = new Random(42);
+        for (String latex : FORMULAS) {
+            TeXFormula f = TeXFormula.getPartialTeXFormula(latex);
+            String source = latex;
+            for (int i = 0; i < 200; i++) {
+                int start = random.nextInt(source.length() + 1);
+                int end = Math.min(source.length(), start + random.nextInt(6));
+                String text = texts[random.nextInt(texts.length)];
+                f = f.edit(start, end, text);
+                source = source.substring(0, start) + text + source.substring(end);
+                assertEquals(source, parse(source, true), render(f));
+            }
+        }
+    }
+
+    @Test
+    public void validEdits() throws ParseException {
+        String latex = FORMULAS[0];
+        TeXFormula f = new TeXFormula(latex);
+        String source = latex;
+        int pos = source.indexOf("a_{1}") + 4;
+        for (char c = '2'; c <= '9'; c++) {
+            f = f.edit(pos, pos + 1, String.valueOf(c));
+            source = source.substring(0, pos) + c + source.substring(pos + 1);
+            assertEquals(source, parse(source, false), render(f));
+        }
+    }
+
+    @Test(expected = ParseException.class)
+    public void invalidEdit() throws ParseException {
+        new TeXFormula("\\frac{a}{b}").edit(5, 6, "");
+    }
+}
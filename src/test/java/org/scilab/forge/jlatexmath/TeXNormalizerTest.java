@@ -0,0 +1,169 @@
+/* TeXNormalizerTest.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Testing that a normalized formula is rendered like the formula itself
+ */
+public class TeXNormalizerTest {
+
+    private static final String[] FORMULAS = {
+        "x^2+y^2", "x^{2} + y^{2}", "a_{i} b_{j}^{k}", "\\alpha b \\beta  c", "\\frac {a + b} {c}",
+        "\\sqrt [3] {x}", "\\text{a  b} + \\mbox{ c }", "\\left( x \\right)", "\\left [ x \\right ]",
+        "\\begin{array}{c c} 1 & 2 \\\\ 3 & 4 \\end{array}", "\\begin{pmatrix} a & b \\\\[2pt] c & d \\end{pmatrix}",
+        "x^{\\alpha} + y^{ab} + z^{ 1 }", "\\mathrm{d x} \\mathbf{ a b }", "50\\% % a comment\n + 1",
+        "\\textcolor{red}{a + b} \\color{blue} c", "\\hspace{1 em} x \\rule{2 pt}{1 pt}", "x ' + f ''",
+        "\\sum _ { i = 0 } ^ { n } i", "\\int\\limits _0^1 f", "\\operatorname{sin} x", "\\overbrace{a + b}^{n}",
+        "\\big( \\Big[ x \\Big] \\big)", "\\ x\\,y\\;z\\!w", "a \\over b", "{a \\choose b}", "x^{2}3",
+        "\\hat {a} \\vec { v }", "\\alpha\n\nb", "\\stackrel{a}{=} \\overset{b}{=}", "1 000 000",
+        "\\text{$x  y$}", "\\lim_{x\\to 0}", "x^{-1}", "a{}b", "\\tfrac {a} {b}", "\\newcommand{\\foo}[1]{#1 ^ 2} \\foo{a}",
+        "\\to %c\np", "\\alpha % c\n b", "\\alpha%c\nb", "x % c\n ^2", "a%\n%\nb"
+    };
+
+    private static int[] render(String latex) {
+        TeXIcon icon = new TeXFormula(latex).createTeXIcon(TeXConstants.STYLE_DISPLAY, 20);
+        BufferedImage image = new BufferedImage(icon.getIconWidth(), icon.getIconHeight(), BufferedImage.TYPE_INT_ARGB);
+        GlyphCache.paint(icon, image, 0, 0);
+        int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        int[] res = new int[pixels.length + 2];
+        res[0] = image.getWidth();
+        res[1] = image.getHeight();
+        System.arraycopy(pixels, 0, res, 2, pixels.length);
+
+        return res;
+    }
+
+    /*
+     * The rendering of a formula, or null if it cannot be parsed
+     */
+    private static int[] tryRender(String latex) {
+        try {
+            return render(latex);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void assertSameRendering(String latex) {
+        String normalized = TeXNormalizer.normalize(latex);
+        int[] expected = tryRender(latex);
+        int[] actual = tryRender(normalized);
+        if (expected == null || actual == null) {
+            if (expected != actual) {
+                fail(latex + " -> " + normalized + (expected == null ? " has been parsed" : " cannot be parsed"));
+            }
+        } else {
+            assertArrayEquals(latex + " -> " + normalized, expected, actual);
+        }
+    }
+
+    @Test
+    public void canonicalForm() {
+        assertEquals("x^2+y^2", TeXNormalizer.normalize("x^{2} + y^{2}\r\n% comment\r\n"));
+        assertEquals("x^2+y^2", TeXNormalizer.normalize("x^2+y^2"));
+        assertEquals("\\alpha b\\beta c", TeXNormalizer.normalize("\\alpha b \\beta  c"));
+        assertEquals("\\to p", TeXNormalizer.normalize("\\to %c\np"));
+        assertEquals("\\alpha b", TeXNormalizer.normalize("\\alpha % c\n b"));
+    }
+
+    @Test
+    public void idempotent() {
+        for (String latex : FORMULAS) {
+            String normalized = TeXNormalizer.normalize(latex);
+            assertEquals(latex, normalized, TeXNormalizer.normalize(normalized));
+        }
+    }
+
+    @Test
+    public void sameRendering() {
+        for (String latex : FORMULAS) {
+            assertSameRendering(latex);
+        }
+    }
+
+    @Test
+    public void sameRenderingWithSpaces() {
+        assertSameRenderingWith(" ");
+    }
+
+    @Test
+    public void sameRenderingWithComments() {
+        assertSameRenderingWith("%c\n");
+        assertSameRenderingWith(" % c\n ");
+    }
+
+    /*
+     * Insert the text at each position of the formulas
+     */
+    private static void assertSameRenderingWith(String text) {
+        for (String latex : FORMULAS) {
+            for (int i = 0; i <= latex.length(); i++) {
+                // a space in a command name changes the formula
+                if (i > 0 && i < latex.length() && Character.isLetter(latex.charAt(i)) && inCommandName(latex, i)) {
+                    continue;
+                }
+                assertSameRendering(latex.substring(0, i) + text + latex.substring(i));
+            }
+        }
+    }
+
+    /*
+     * The commands read by the parser, in case one is added without being handled
+     * by the normalizer.
+     */
+    @Test
+    public void everyCommand() {
+        List<String> skipped = new ArrayList<String>(Arrays.asList("not"));
+        for (String name : new TreeSet<String>(MacroInfo.Commands.keySet())) {
+            if (name.indexOf('@') == -1 && !skipped.contains(name)) {
+                assertSameRendering("\\" + name + "{ a b }{ c^{d} } x");
+                assertSameRendering("\\" + name + " [ 2 ] { a + b } y");
+            }
+        }
+    }
+
+    private static boolean inCommandName(String latex, int i) {
+        int j = i;
+        while (j > 0 && Character.isLetter(latex.charAt(j - 1))) {
+            j--;
+        }
+
+        return j > 0 && latex.charAt(j - 1) == '\\';
+    }
+}
@@ -0,0 +1,88 @@
+/* TeXParserTest.java
+ * =========================================================================
+ * This file is part of the JLaTeXMath Library - http://forge.scilab.org/p/jlatexmath
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or (at
+ * your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ *
+ * A copy of the GNU General Public License can be found in the file
+ * LICENSE.txt provided with the source distribution of this program (see
+ * the META-INF directory in the source jar). This license can also be
+ * found on the GNU website at http://www.gnu.org/licenses/gpl.html.
+ *
+ * If you did not receive a copy of the GNU General Public License along
+ * with this program, contact the lead developer, or write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA
+ * 02110-1301, USA.
+ *
+ */
+
+package org.scilab.forge.jlatexmath;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Testing the parsers shared by the formulas (see {@link TeXParser#obtain})
+ */
+public class TeXParserTest {
+
+    private static final String[] FORMULAS = {
+        "\\frac{a_{1}+b^{2}}{\\sqrt{x_1}}", "\\newcommand{\\foo}[1]{#1^2}\\foo{a}+\\foo{c}",
+        "\\text{a {b} c} x^{y^{z}}_{w}", "\\begin{array}{cc} 1 & 2 \\\\ 3 & \\frac{4}{5}\\end{array}",
+        "\\left( {x} \\middle| {y} \\right)", "\\sum_{i=0}^{n} i^2 = \\frac{n(n+1)(2n+1)}{6}"
+    };
+
+    private static String measure(String latex) {
+        TeXIcon icon = new TeXFormula(latex).createTeXIcon(TeXConstants.STYLE_DISPLAY, 20);
+        return icon.getIconWidth() + "x" + icon.getIconHeight() + "+" + icon.getIconDepth();
+    }
+
+    @Test
+    public void concurrentFormulas() throws Exception {
+        final List<String> expected = new ArrayList<String>();
+        for (String latex : FORMULAS) {
+            expected.add(measure(latex));
+        }
+
+        // more threads than free parsers
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+            for (int t = 0; t < 8; t++) {
+                results.add(executor.submit(new Callable<List<String>>() {
+                        public List<String> call() {
+                            List<String> sizes = new ArrayList<String>();
+                            for (int i = 0; i < 50; i++) {
+                                sizes.clear();
+                                for (String latex : FORMULAS) {
+                                    sizes.add(measure(latex));
+                                }
+                            }
+                            return sizes;
+                        }
+                    }));
+            }
+            for (Future<List<String>> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}